@@ -0,0 +1,73 @@
+package com.vedran.cardapi;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Helpers shared by benchmarks: isolated Spring context and temp folders.
+public final class BenchmarkContexts {
+
+    private BenchmarkContexts() {
+    }
+
+    // Starts application without web server, on its own in-memory database and process folder.
+    // With fileDatabase properties it runs on prod profile database instead.
+    public static ConfigurableApplicationContext start(String name, File processFolder, String... extraProperties) {
+        return start(WebApplicationType.NONE, name, processFolder, extraProperties);
+    }
+
+    // Same as start, with Tomcat on a random port (see port)
+    public static ConfigurableApplicationContext startWeb(String name, File processFolder, String... extraProperties) {
+        List<String> properties = new ArrayList<>(List.of(extraProperties));
+        properties.add("server.port=0");
+        return start(WebApplicationType.SERVLET, name, processFolder, properties.toArray(new String[0]));
+    }
+
+    public static int port(ConfigurableApplicationContext context) {
+        return Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+    }
+
+    private static ConfigurableApplicationContext start(WebApplicationType type, String name, File processFolder,
+                                                        String... extraProperties) {
+        List<String> properties = new ArrayList<>();
+        if (Stream.of(extraProperties).noneMatch(property -> property.startsWith("cardapi.db.file="))) {
+            properties.add("spring.datasource.url=jdbc:h2:mem:bench-" + name + "-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        }
+        properties.addAll(List.of(
+                "spring.main.banner-mode=off",
+                "logging.level.root=WARN",
+                "cardapi.production.enabled=false",
+                "cardapi.process.folder=" + processFolder.getPath(),
+                "cardapi.process.journal.folder=" + processFolder.getPath() + ".journal"));
+        properties.addAll(List.of(extraProperties));
+        // As command line arguments, default properties would lose against application.properties
+        return new SpringApplicationBuilder(CardapiApplication.class)
+                .web(type)
+                .run(properties.stream().map(property -> "--" + property).toArray(String[]::new));
+    }
+
+    // Prod profile (file database, Flyway schema, sized pool) with database files in folder
+    public static String[] fileDatabase(File folder) {
+        return new String[]{"spring.profiles.active=prod", "cardapi.db.file=" + new File(folder, "cardapi").getPath()};
+    }
+
+    public static File tempFolder(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    public static void deleteRecursively(File folder) throws IOException {
+        if (folder == null || !folder.exists()) return;
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
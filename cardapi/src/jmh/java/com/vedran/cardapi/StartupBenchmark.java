@@ -0,0 +1,77 @@
+package com.vedran.cardapi;
+
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.service.ClientBulkService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time until application is ready: in-memory database with schema from entities (default)
+// vs prod profile file database, where Flyway checks migrations and Hibernate validates the schema.
+// The file database already holds the rows, so this is a restart, as in production.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    static final long firstOib = 10000000000L;
+
+    @Param({"mem", "file"})
+    public String database;
+
+    @Param({"100000"})
+    public int rows;
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-startup");
+        if (!"file".equals(database)) return;
+        // First start migrates the empty database
+        ConfigurableApplicationContext filling = start();
+        ClientBulkService clientBulkService = filling.getBean(ClientBulkService.class);
+        List<Client> batch = new ArrayList<>(1000);
+        for (int i = 0; i < rows; i++) {
+            batch.add(new Client(null, firstOib + i, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+            if (batch.size() == 1000 || i == rows - 1) {
+                clientBulkService.insertBatch(batch);
+                batch.clear();
+            }
+        }
+        filling.close();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        if (context != null) context.close();
+        context = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext startup() {
+        context = start();
+        return context;
+    }
+
+    private ConfigurableApplicationContext start() {
+        File processFolder = new File(folder, "StartedCardMakingProcesses");
+        return "file".equals(database)
+                ? BenchmarkContexts.start("startup", processFolder, BenchmarkContexts.fileDatabase(folder))
+                : BenchmarkContexts.start("startup", processFolder);
+    }
+}
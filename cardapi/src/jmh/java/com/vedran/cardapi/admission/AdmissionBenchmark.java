@@ -0,0 +1,68 @@
+package com.vedran.cardapi.admission;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Overload: 16 threads of process calls (5 ms on a connection each, like killProcess or bulk starts)
+// and 2 threads of reads (0.2 ms each) share a pool of 8 connections, as Hikari in prod.
+// Without admission the process calls hold the pool and reads queue behind them,
+// with admission process calls get at most their limit and the rest is rejected (429).
+// SampleTime: compare read p99 of admission=false and true.
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdmissionBenchmark {
+
+    static final long readNanos = TimeUnit.MICROSECONDS.toNanos(200);
+    static final long processNanos = TimeUnit.MILLISECONDS.toNanos(5);
+
+    @Param({"false", "true"})
+    public boolean admission;
+
+    private AdmissionFilter filter;
+    private Semaphore connections;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Defaults of AdmissionFilter, as without application.properties
+        filter = new AdmissionFilter(new StandardEnvironment(), new ObjectMapper(), new SimpleMeterRegistry());
+        connections = new Semaphore(8, true);
+    }
+
+    @Benchmark
+    @Group("overload")
+    @GroupThreads(2)
+    public boolean read() throws InterruptedException {
+        return call(AdmissionFilter.EndpointClass.READ, "GET /clients", readNanos);
+    }
+
+    @Benchmark
+    @Group("overload")
+    @GroupThreads(16)
+    public boolean process() throws InterruptedException {
+        return call(AdmissionFilter.EndpointClass.PROCESS, "POST /clients/startProcess", processNanos);
+    }
+
+    // False if rejected
+    private boolean call(AdmissionFilter.EndpointClass endpointClass, String endpoint, long workNanos) throws InterruptedException {
+        if (admission && !filter.admit(endpointClass)) return false;
+        long start = System.nanoTime();
+        connections.acquire();
+        try {
+            LockSupport.parkNanos(workNanos);
+        } finally {
+            connections.release();
+            if (admission) filter.done(endpointClass, endpoint, System.nanoTime() - start, false);
+        }
+        return true;
+    }
+}
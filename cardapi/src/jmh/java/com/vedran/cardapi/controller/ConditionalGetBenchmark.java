@@ -0,0 +1,75 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.service.ClientBulkService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Dashboard poll of GET /clients?limit=1000 over HTTP when nothing changed since last poll:
+// full response (plain and gzip) vs If-None-Match answered with 304 (no query, no body).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConditionalGetBenchmark {
+
+    static final long firstOib = 10000000000L;
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private HttpClient http;
+    private URI clients;
+    private String etag;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        folder = BenchmarkContexts.tempFolder("bench-etag");
+        context = BenchmarkContexts.startWeb("etag", new File(folder, "StartedCardMakingProcesses"));
+        List<Client> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new Client(null, firstOib + i, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+        }
+        context.getBean(ClientBulkService.class).insertBatch(batch);
+        clients = URI.create("http://localhost:" + BenchmarkContexts.port(context) + "/clients?limit=1000");
+        http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        etag = send(HttpRequest.newBuilder(clients)).headers().firstValue("ETag").orElseThrow();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public int full() throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(clients)).body().length;
+    }
+
+    @Benchmark
+    public int fullGzip() throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(clients).header("Accept-Encoding", "gzip")).body().length;
+    }
+
+    @Benchmark
+    public int notModified() throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(clients).header("If-None-Match", etag)).statusCode();
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return http.send(request.GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
@@ -0,0 +1,64 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Client;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Handlers called with ids that do not exist (client typo, deleted request, scanner).
+// DB is empty, so this is the cost of the not-found branch itself plus one primary key lookup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MissPathBenchmark {
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private ApiControllers controller;
+    private final Client patch = new Client(null, null, "Ivan", null, null, null);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-miss");
+        context = BenchmarkContexts.start("miss", folder);
+        controller = context.getBean(ApiControllers.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public Object getMissing() {
+        return controller.getMeClientRequest(missingId(), null);
+    }
+
+    @Benchmark
+    public Object patchMissing() {
+        return controller.updateClientRequest(missingId(), patch);
+    }
+
+    @Benchmark
+    public Object startMissing() {
+        return controller.startClientRequest(missingId(), null);
+    }
+
+    @Benchmark
+    public Object stopMissing() {
+        return controller.stopClientRequest(missingId());
+    }
+
+    private static long missingId() {
+        return 1 + ThreadLocalRandom.current().nextInt(1000000);
+    }
+}
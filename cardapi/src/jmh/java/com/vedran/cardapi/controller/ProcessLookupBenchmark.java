@@ -0,0 +1,84 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.process.FileProcessStore;
+import com.vedran.cardapi.process.ProcessRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// checkIfProcessStarted against process folders of different size.
+// directoryScan is the old lookup (listFiles + name contains + read file) kept as baseline.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessLookupBenchmark {
+
+    static final long firstOib = 10000000000L;
+
+    @Param({"1000", "10000", "100000"})
+    public int files;
+
+    private File folder;
+    private ApiControllers controller;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-processes");
+        for (int i = 0; i < files; i++) {
+            long oib = firstOib + i;
+            Files.writeString(new File(folder, oib + "--2023-07-01--12-00-00.txt").toPath(),
+                    (i + 1) + ":" + oib + ":Ivan:Horvat:STARTED");
+        }
+        ProcessRegistry processRegistry = new ProcessRegistry(new FileProcessStore(folder.getPath()), new SimpleMeterRegistry());
+        processRegistry.load();
+        controller = new ApiControllers();
+        ReflectionTestUtils.setField(controller, "processRegistry", processRegistry);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public String[] checkIfProcessStarted_hit() {
+        return controller.checkIfProcessStarted(firstOib + ThreadLocalRandom.current().nextInt(files));
+    }
+
+    @Benchmark
+    public String[] checkIfProcessStarted_miss() {
+        return controller.checkIfProcessStarted(firstOib + files + ThreadLocalRandom.current().nextInt(files));
+    }
+
+    @Benchmark
+    public String[] directoryScan_hit() throws IOException {
+        long oib = firstOib + ThreadLocalRandom.current().nextInt(files);
+        File[] directoryListing = folder.listFiles();
+        if (directoryListing != null) {
+            for (File child : directoryListing) {
+                if (child.getName().contains(oib + "")) {
+                    String[] splitData = null;
+                    try (Scanner myReader = new Scanner(child)) {
+                        while (myReader.hasNextLine()) {
+                            String data = myReader.nextLine();
+                            if (data.contains(":")) splitData = data.split(":");
+                        }
+                    }
+                    return splitData;
+                }
+            }
+        }
+        return null;
+    }
+}
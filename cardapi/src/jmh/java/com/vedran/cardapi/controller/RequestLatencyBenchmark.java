@@ -0,0 +1,93 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Oib;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Latency distribution (p50/p99/p99.9 in SampleTime results) of real HTTP requests at high concurrency.
+// 64 client threads against 32 Tomcat threads, so with platform threads requests queue up behind
+// process file I/O. virtualThreads=true only has effect on Java 21 (mvn -Pjava21 -Pbenchmark verify).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(64)
+@Fork(1)
+public class RequestLatencyBenchmark {
+
+    @Param({"false", "true"})
+    public String virtualThreads;
+
+    @Param({"0", "8"})
+    public String asyncLanes;
+
+    // First 10 digits of next OIB, check digit is added
+    private final AtomicLong nextOib = new AtomicLong(1000000000L);
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private HttpClient http;
+    private String baseUrl;
+
+    @State(Scope.Thread)
+    public static class ThreadClient {
+        URI get;
+        URI start;
+        URI stop;
+
+        @Setup(Level.Trial)
+        public void setup(RequestLatencyBenchmark benchmark) throws IOException, InterruptedException {
+            long oib = Oib.withCheckDigit(benchmark.nextOib.getAndIncrement());
+            String body = "{\"oib\":" + oib + ",\"firstName\":\"Ivan\",\"lastName\":\"Horvat\"}";
+            String created = benchmark.send(HttpRequest.newBuilder(URI.create(benchmark.baseUrl + "/client/card"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body)));
+            String id = created.substring(created.indexOf(":") + 1, created.indexOf(","));
+            get = URI.create(benchmark.baseUrl + "/client/card/" + id);
+            start = URI.create(benchmark.baseUrl + "/client/card/" + id + "/startProcess");
+            stop = URI.create(benchmark.baseUrl + "/client/card/" + id + "/stopProcess");
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-latency");
+        context = BenchmarkContexts.startWeb("latency", new File(folder, "StartedCardMakingProcesses"),
+                "server.tomcat.threads.max=32",
+                "cardapi.virtual-threads.enabled=" + virtualThreads,
+                "cardapi.process.async.lanes=" + asyncLanes);
+        baseUrl = "http://localhost:" + BenchmarkContexts.port(context);
+        http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public String startStopProcess(ThreadClient threadClient) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder(threadClient.start).POST(HttpRequest.BodyPublishers.noBody()));
+        return send(HttpRequest.newBuilder(threadClient.stop).DELETE());
+    }
+
+    @Benchmark
+    public String getClientRequest(ThreadClient threadClient) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(threadClient.get).GET());
+    }
+
+    String send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
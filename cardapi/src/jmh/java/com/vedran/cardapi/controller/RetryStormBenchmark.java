@@ -0,0 +1,74 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.Oib;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Gateway retries: each operation is one logical request sent `attempts` times.
+// Without key every attempt inserts a row, with Idempotency-Key only the first one does.
+// startStarted is a repeated start of a request that is already STARTED (no process write).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetryStormBenchmark {
+
+    static final long oib = Oib.withCheckDigit(1234567890L);
+
+    @Param({"3"})
+    public int attempts;
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private ApiControllers controller;
+    private Long startedId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-retry");
+        context = BenchmarkContexts.start("retry", folder);
+        controller = context.getBean(ApiControllers.class);
+        startedId = ((Client) controller.addClientRequest(client(), null).getBody()).getId();
+        controller.startClientRequest(startedId, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public Object create_noKey() {
+        Object response = null;
+        for (int i = 0; i < attempts; i++) response = controller.addClientRequest(client(), null);
+        return response;
+    }
+
+    @Benchmark
+    public Object create_withKey() {
+        String key = UUID.randomUUID().toString();
+        Object response = null;
+        for (int i = 0; i < attempts; i++) response = controller.addClientRequest(client(), key);
+        return response;
+    }
+
+    @Benchmark
+    public Object startStarted() {
+        return controller.startClientRequest(startedId, null);
+    }
+
+    // New object per attempt, as deserialized from each retried body
+    private static Client client() {
+        return new Client(null, oib, "Ivan", "Horvat", null, null);
+    }
+}
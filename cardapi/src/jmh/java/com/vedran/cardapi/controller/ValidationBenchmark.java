@@ -0,0 +1,79 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.Oib;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// checkOib, checkIfDataOk_Client and the "Missing data" message built from it.
+// oibCheckDigit_upload is one OIB of a mixed upload (POST /oib/validate), should stay at a few ns.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    private final ApiControllers controller = new ApiControllers();
+    private final Client completeClient = new Client(null, 12345678903L, "Ivan", "Horvat", null, null);
+    private final Client emptyClient = new Client();
+    private Long validOib = 12345678903L;
+    private Long invalidOib = 1234L;
+    private Long wrongCheckDigitOib = 12345678901L;
+    private final long[] upload = new long[1024];
+
+    @Setup
+    public void setup() {
+        // Half valid, half with wrong check digit
+        Random random = new Random(42);
+        for (int i = 0; i < upload.length; i++) {
+            long oib = Oib.withCheckDigit(1000000000L + random.nextInt(900000000));
+            upload[i] = i % 2 == 0 ? oib : oib / 10 * 10 + (oib + 1) % 10;
+        }
+    }
+
+    @Benchmark
+    public boolean checkOib_valid() {
+        return controller.checkOib(validOib);
+    }
+
+    @Benchmark
+    public boolean checkOib_invalid() {
+        return controller.checkOib(invalidOib);
+    }
+
+    @Benchmark
+    public boolean checkOib_wrongCheckDigit() {
+        return controller.checkOib(wrongCheckDigitOib);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public int oibCheckDigit_upload() {
+        int valid = 0;
+        for (long oib : upload) {
+            if (Oib.isValid(oib)) valid++;
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public List<String> checkIfDataOk_Client_complete() {
+        return controller.checkIfDataOk_Client(completeClient);
+    }
+
+    @Benchmark
+    public List<String> checkIfDataOk_Client_missingAll() {
+        return controller.checkIfDataOk_Client(emptyClient);
+    }
+
+    @Benchmark
+    public String missingDataMessage() {
+        List<String> missingDataList = controller.checkIfDataOk_Client(emptyClient);
+        return "Client request not created. Missing data: " + ApiControllers.joinMissingData(missingDataList);
+    }
+}
@@ -0,0 +1,78 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.repo.ClientRepo;
+import com.vedran.cardapi.service.ClientBulkService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Startup cost of process folder: parallel load of all files plus reconcile against the client table.
+// Files and rows agree, so every iteration does the same work.
+// One core, warm page cache: 100k files 0.7-2.7 s. 1M files (-p files=1000000) 56-61 s, of which reconcile
+// is 2.8-4.1 s and load the rest: reading 1M small files alone takes 30-55 us each there, so at that size
+// load needs more cores (cardapi.process.load-parallelism) or the journal store.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ProcessReconcileBenchmark {
+
+    static final long firstOib = 10000000000L;
+
+    @Param({"10000", "100000"})
+    public int files;
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private ProcessRegistry processRegistry;
+    private ProcessReconciler processReconciler;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-reconcile");
+        File processFolder = new File(folder, "StartedCardMakingProcesses");
+        context = BenchmarkContexts.start("reconcile", processFolder,
+                "cardapi.process.reconcile.enabled=false", "cardapi.process.async.lanes=0");
+        ClientBulkService clientBulkService = context.getBean(ClientBulkService.class);
+        processFolder.mkdirs();
+        List<Client> batch = new ArrayList<>(1000);
+        for (int i = 0; i < files; i++) {
+            batch.add(new Client(null, firstOib + i, "Ivan", "Horvat", Client.Status.STARTED, null));
+            if (batch.size() == 1000 || i == files - 1) {
+                clientBulkService.insertBatch(batch);
+                for (Client client : batch) {
+                    Files.writeString(new File(processFolder, client.getOib() + "--2023-07-01--12-00-00.txt").toPath(),
+                            client.getId() + ":" + client.getOib() + ":Ivan:Horvat:STARTED");
+                }
+                batch.clear();
+            }
+        }
+        processRegistry = context.getBean(ProcessRegistry.class);
+        processReconciler = new ProcessReconciler(processRegistry, context.getBean(ClientRepo.class),
+                new SimpleMeterRegistry(), true, 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public int loadAndReconcile() {
+        processRegistry.load();
+        processReconciler.reconcile();
+        return processRegistry.size();
+    }
+}
@@ -0,0 +1,73 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Client;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// startProcess/stopProcess round trip (ProcessRegistry.start + stop) for each ProcessStore.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessStoreBenchmark {
+
+    @Param({"file", "journal"})
+    public String store;
+
+    private final AtomicLong nextOib = new AtomicLong(10000000000L);
+    private File folder;
+    private ProcessStore processStore;
+    private ProcessRegistry processRegistry;
+
+    @State(Scope.Thread)
+    public static class ThreadClient {
+        Client client;
+
+        @Setup(Level.Trial)
+        public void setup(ProcessStoreBenchmark benchmark) {
+            long oib = benchmark.nextOib.getAndIncrement();
+            client = new Client(oib - 9999999999L, oib, "Ivan", "Horvat", Client.Status.STARTED, null);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-store");
+        File processFolder = new File(folder, "StartedCardMakingProcesses");
+        if ("journal".equals(store)) {
+            processStore = new JournalProcessStore(new File(folder, "journal").getPath(), processFolder.getPath(),
+                    64L * 1024 * 1024, JournalProcessStore.FsyncPolicy.GROUP, false, 1000);
+        } else {
+            processStore = new FileProcessStore(processFolder.getPath());
+        }
+        processRegistry = new ProcessRegistry(processStore, new SimpleMeterRegistry());
+        processRegistry.load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (processStore instanceof JournalProcessStore journal) journal.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public void startStop(ThreadClient threadClient) {
+        processRegistry.start(threadClient.client);
+        processRegistry.stop(threadClient.client.getOib());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void startStop_8threads(ThreadClient threadClient) {
+        processRegistry.start(threadClient.client);
+        processRegistry.stop(threadClient.client.getOib());
+    }
+}
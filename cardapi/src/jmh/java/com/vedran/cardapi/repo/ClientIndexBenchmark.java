@@ -0,0 +1,73 @@
+package com.vedran.cardapi.repo;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Filter queries of GET /clients on 1M rows: client (with Client indexes) vs client_scan (same data, no indexes).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ClientIndexBenchmark {
+
+    static final long firstOib = 10000000000L;
+    static final int lastNames = 10000;
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"client", "client_scan"})
+    public String table;
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-index");
+        context = BenchmarkContexts.start("index", folder);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        // Status 1 (STARTED) is rare, like in production
+        jdbcTemplate.update("insert into client (id, oib, first_name, last_name, status, version) "
+                + "select x, " + firstOib + " + x / 2, 'Ivan' || mod(x, 100), 'Horvat' || mod(x, " + lastNames + "), "
+                + "case when mod(x, 100) = 0 then 1 else 2 end, 0 from system_range(1, " + rows + ")");
+        jdbcTemplate.execute("create table client_scan as select * from client");
+        jdbcTemplate.execute("analyze");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> byOib() {
+        long oib = firstOib + ThreadLocalRandom.current().nextInt(rows / 2);
+        return jdbcTemplate.queryForList("select * from " + table + " where oib = ?", oib);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> byLastNameAndFirstName() {
+        int x = ThreadLocalRandom.current().nextInt(rows);
+        return jdbcTemplate.queryForList("select * from " + table + " where last_name = ? and first_name = ?",
+                "Horvat" + (x % lastNames), "Ivan" + (x % 100));
+    }
+
+    @Benchmark
+    public List<Long> byRareStatus() {
+        return jdbcTemplate.queryForList("select id from " + table + " where status = ?", Long.class, 1);
+    }
+}
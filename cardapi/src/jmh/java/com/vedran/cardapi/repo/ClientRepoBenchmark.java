@@ -0,0 +1,113 @@
+package com.vedran.cardapi.repo;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.StatusCount;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// ClientRepo lookups on H2 with realistic row counts.
+// findPage_status vs findPage_status_idAndStatus: whole rows vs fields=id,status (dashboards).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientRepoBenchmark {
+
+    static final long firstOib = 10000000000L;
+    static final int lastNames = 1000;
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private ClientRepo clientRepo;
+    private TransactionTemplate transactionTemplate;
+    private final List<String> idAndStatus = ClientFields.parse("status");
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-repo");
+        context = BenchmarkContexts.start("repo", folder);
+        clientRepo = context.getBean(ClientRepo.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        List<Client> batch = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            // Every OIB has two requests
+            batch.add(new Client(null, firstOib + i / 2, "Ivan" + i, "Horvat" + (i % lastNames),
+                    Client.Status.values()[i % Client.Status.values().length], null));
+            if (batch.size() == 1000) {
+                clientRepo.saveAll(batch);
+                batch.clear();
+            }
+        }
+        clientRepo.saveAll(batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public List<Client> findByOib() {
+        return clientRepo.findByOib(firstOib + ThreadLocalRandom.current().nextInt(rows / 2));
+    }
+
+    @Benchmark
+    public List<Client> findPage_lastName() {
+        String lastName = "Horvat" + ThreadLocalRandom.current().nextInt(lastNames);
+        return clientRepo.findPage(ClientSpecs.filter(null, null, lastName, null), null, 100);
+    }
+
+    @Benchmark
+    public List<Client> findPage_oibAndStatus() {
+        Long oib = firstOib + ThreadLocalRandom.current().nextInt(rows / 2);
+        return clientRepo.findPage(ClientSpecs.filter(oib, null, null, Client.Status.STARTED), null, 100);
+    }
+
+    @Benchmark
+    public List<Client> findPage_status() {
+        return clientRepo.findPage(ClientSpecs.hasStatus(Client.Status.STARTED), null, 1000);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> findPage_status_idAndStatus() {
+        return clientRepo.findPage(ClientSpecs.hasStatus(Client.Status.STARTED), null, 1000, idAndStatus);
+    }
+
+    // What a dashboard did before GET /clients/count: load all rows of a status to count them
+    @Benchmark
+    public int countStarted_findByStatus() {
+        return clientRepo.findByStatus(Client.Status.STARTED).size();
+    }
+
+    @Benchmark
+    public List<StatusCount> countByStatus() {
+        return clientRepo.countByStatus();
+    }
+
+    @Benchmark
+    public void streamAll_status(Blackhole blackhole) {
+        transactionTemplate.executeWithoutResult(transaction -> {
+            try (Stream<Client> clients = clientRepo.streamAll(ClientSpecs.hasStatus(Client.Status.STARTED), 500)) {
+                clients.forEach(blackhole::consume);
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package com.vedran.cardapi.service;
+
+import com.vedran.cardapi.BenchmarkContexts;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.repo.ClientRepo;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Insert throughput: one save per record (POST /client/card) vs ClientBulkService batches (POST /client/card/bulk),
+// on in-memory database (default) and on prod profile file database (-p database=file).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkInsertBenchmark {
+
+    static final int records = 5000;
+
+    @Param({"500"})
+    public int batchSize;
+
+    @Param({"mem", "file"})
+    public String database;
+
+    private File folder;
+    private ConfigurableApplicationContext context;
+    private ClientRepo clientRepo;
+    private ClientBulkService clientBulkService;
+    private long nextOib = 10000000000L;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = BenchmarkContexts.tempFolder("bench-bulk");
+        context = "file".equals(database)
+                ? BenchmarkContexts.start("bulk", folder, BenchmarkContexts.fileDatabase(folder))
+                : BenchmarkContexts.start("bulk", folder);
+        clientRepo = context.getBean(ClientRepo.class);
+        clientBulkService = context.getBean(ClientBulkService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkContexts.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(records)
+    public void singleSave() {
+        for (int i = 0; i < records; i++) {
+            clientRepo.save(newClient());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(records)
+    public void bulkInsert() {
+        List<Client> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < records; i++) {
+            batch.add(newClient());
+            if (batch.size() == batchSize) {
+                clientBulkService.insertBatch(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) clientBulkService.insertBatch(batch);
+    }
+
+    private Client newClient() {
+        return new Client(null, nextOib++, "Ivan", "Horvat", Client.Status.REQUESTED, null);
+    }
+}
@@ -2,10 +2,12 @@ package com.vedran.cardapi;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 //(exclude = {HibernateJpaAutoConfiguration.class})
 //(exclude={DataSourceAutoConfiguration.class})
 @SpringBootApplication
+@EnableScheduling
 public class CardapiApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,55 @@
+package com.vedran.cardapi;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs Tomcat requests and MVC async work (NDJSON streaming) on virtual threads.
+// Needs Java 21 at runtime (build with -Pjava21). The Java 21 API is called through reflection,
+// so the default Java 17 build still compiles and just keeps platform threads.
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "cardapi.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    private final ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler() {
+        return protocolHandler -> {
+            if (virtualThreads != null) protocolHandler.setExecutor(virtualThreads);
+        };
+    }
+
+    @Bean
+    public WebMvcConfigurer virtualThreadAsyncSupport() {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                if (virtualThreads != null) configurer.setTaskExecutor(new TaskExecutorAdapter(virtualThreads));
+            }
+        };
+    }
+
+    // Null if this JVM has no virtual threads
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Request handling runs on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Virtual threads not available on Java {}, using platform threads",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+}
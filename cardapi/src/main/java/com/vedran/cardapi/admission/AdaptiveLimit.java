@@ -0,0 +1,139 @@
+package com.vedran.cardapi.admission;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Concurrency limit of one endpoint class that follows latency (AIMD, as TCP congestion control):
+// while requests take about as long as the fastest ones of the same endpoint lately, the limit grows by
+// one each time it was all in use; when they take tolerance times longer (DB pool or disk is queueing)
+// it shrinks by backoff. Each endpoint has its own fastest latency: a class mixes cache hits of a few
+// microseconds with DB queries, one baseline for all would take every query as overload.
+// Over the limit a request waits in a bounded queue up to queue-timeout, then it is rejected.
+// ReentrantLock, not synchronized: waiting virtual threads do not pin their carrier.
+class AdaptiveLimit {
+
+    // Completions of an endpoint after which its fastest latency is taken again, so it can follow a slower DB
+    static final int window = 500;
+
+    // Fastest latency of one endpoint
+    private static class Baseline {
+        long minRtt = Long.MAX_VALUE;
+        long windowMinRtt = Long.MAX_VALUE;
+        int samples;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long queueTimeoutNanos;
+    private final double tolerance;
+    private final double backoff;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    // Only endpoints with latency samples: successful responses of mapped paths
+    private final Map<String, Baseline> baselines = new HashMap<>();
+
+    AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, int queueSize, long queueTimeoutMs,
+                  double tolerance, double backoff) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.queueSize = queueSize;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+    }
+
+    // False if rejected: queue is full, waiting is not allowed or no slot was freed in time
+    boolean acquire(boolean mayWait) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            if (!mayWait || queued >= queueSize) return false;
+            queued++;
+            try {
+                long remaining = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) return false;
+                    remaining = released.awaitNanos(remaining);
+                }
+                inFlight++;
+                return true;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // endpoint: method and path with ids left out. rttNanos < 0: no latency sample (streamed response,
+    // 304 or 4xx, that did not do the work). failed: 5xx, counts as overload.
+    void release(String endpoint, long rttNanos, boolean failed) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= (int) limit;
+            inFlight--;
+            if (failed) {
+                limit = Math.max(minLimit, limit * backoff);
+            } else if (rttNanos >= 0) {
+                long minRtt = sample(endpoint, rttNanos);
+                if (rttNanos > minRtt * tolerance) {
+                    limit = Math.max(minLimit, limit * backoff);
+                } else if (saturated) {
+                    limit = Math.min(maxLimit, limit + 1);
+                }
+            }
+            // Limit can have grown, more than one waiter may go
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waiting requests or no free slot: lower priority classes are rejected without waiting
+    boolean underPressure() {
+        lock.lock();
+        try {
+            return queued > 0 || inFlight >= (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int limit() {
+        return (int) limit;
+    }
+
+    int inFlight() {
+        return inFlight;
+    }
+
+    int queued() {
+        return queued;
+    }
+
+    // Caller holds lock. Fastest latency of endpoint, this sample included.
+    private long sample(String endpoint, long rttNanos) {
+        Baseline baseline = baselines.computeIfAbsent(endpoint, key -> new Baseline());
+        baseline.windowMinRtt = Math.min(baseline.windowMinRtt, rttNanos);
+        baseline.minRtt = Math.min(baseline.minRtt, rttNanos);
+        long minRtt = baseline.minRtt;
+        if (++baseline.samples >= window) {
+            baseline.minRtt = baseline.windowMinRtt;
+            baseline.windowMinRtt = Long.MAX_VALUE;
+            baseline.samples = 0;
+        }
+        return minRtt;
+    }
+}
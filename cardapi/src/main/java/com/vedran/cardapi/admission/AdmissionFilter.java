@@ -0,0 +1,239 @@
+package com.vedran.cardapi.admission;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vedran.cardapi.models.ApiError;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Admission control in front of ApiControllers: every request takes a slot of its endpoint class
+// (AdaptiveLimit) before it reaches the controller, and is answered 429 with Retry-After when none is
+// free in time. Classes go by priority: when reads are waiting, writes and process calls are rejected
+// at once instead of queueing, so a burst of killProcess or bulk starts is shed before cheap reads.
+// Runs after the http.server.requests observation, so rejections are also counted there.
+// Off unless cardapi.admission.enabled=true.
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    // Highest priority first
+    public enum EndpointClass {
+        READ,    // GET, POST /oib/validate
+        WRITE,   // create/update/delete of requests, bulk upload
+        PROCESS  // start/stop/kill process and DELETE /client/{oib}: process files and many rows
+    }
+
+    private final boolean enabled;
+    private final ObjectMapper objectMapper;
+    private final Map<EndpointClass, AdaptiveLimit> limits = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, Long> retryAfterSeconds = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, Timer> waitTimers = new EnumMap<>(EndpointClass.class);
+    private final MeterRegistry meterRegistry;
+
+    // Per class: cardapi.admission.<read|write|process>.<initial-limit|max-limit|queue-size|queue-timeout-ms|retry-after-s>
+    public AdmissionFilter(Environment environment, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.enabled = environment.getProperty("cardapi.admission.enabled", Boolean.class, false);
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        int minLimit = environment.getProperty("cardapi.admission.min-limit", Integer.class, 1);
+        double tolerance = environment.getProperty("cardapi.admission.tolerance", Double.class, 2.0);
+        double backoff = environment.getProperty("cardapi.admission.backoff", Double.class, 0.9);
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            String prefix = "cardapi.admission." + endpointClass.name().toLowerCase(Locale.ROOT) + ".";
+            int[] defaults = switch (endpointClass) {
+                // initial-limit, max-limit, queue-size, queue-timeout-ms, retry-after-s
+                case READ -> new int[]{64, 256, 256, 500, 1};
+                case WRITE -> new int[]{16, 64, 32, 200, 2};
+                case PROCESS -> new int[]{4, 16, 8, 100, 5};
+            };
+            AdaptiveLimit limit = new AdaptiveLimit(
+                    environment.getProperty(prefix + "initial-limit", Integer.class, defaults[0]),
+                    minLimit,
+                    environment.getProperty(prefix + "max-limit", Integer.class, defaults[1]),
+                    environment.getProperty(prefix + "queue-size", Integer.class, defaults[2]),
+                    environment.getProperty(prefix + "queue-timeout-ms", Integer.class, defaults[3]),
+                    tolerance, backoff);
+            limits.put(endpointClass, limit);
+            retryAfterSeconds.put(endpointClass, (long) environment.getProperty(prefix + "retry-after-s", Integer.class, defaults[4]));
+
+            String tag = endpointClass.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("cardapi.admission.limit", limit, AdaptiveLimit::limit)
+                    .description("Current concurrency limit of endpoint class")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            Gauge.builder("cardapi.admission.in-flight", limit, AdaptiveLimit::inFlight)
+                    .description("Requests of endpoint class being handled")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            Gauge.builder("cardapi.admission.queued", limit, AdaptiveLimit::queued)
+                    .description("Requests of endpoint class waiting for a slot")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            waitTimers.put(endpointClass, Timer.builder("cardapi.admission.wait")
+                    .description("Wait for a slot, also of rejected requests")
+                    .tag("class", tag)
+                    .register(meterRegistry));
+        }
+    }
+
+    // Heartbeats, metrics and the change feed (held open for an hour) are never limited
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled) return true;
+        String path = request.getRequestURI();
+        return path.startsWith("/actuator") || path.startsWith("/cluster/") || path.startsWith("/h2-console")
+                || path.equals("/help") || path.equals("/clients/changes");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        EndpointClass endpointClass = classify(request.getMethod(), request.getRequestURI());
+        String endpoint = endpoint(request.getMethod(), request.getRequestURI());
+        AdaptiveLimit limit = limits.get(endpointClass);
+        if (!admit(endpointClass)) {
+            reject(endpointClass, response);
+            return;
+        }
+        long admittedAt = System.nanoTime();
+
+        AtomicBoolean releasedOnce = new AtomicBoolean();
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                // Streamed response (NDJSON), slot is held until it is written, its duration is no latency sample
+                async = true;
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        release(limit, endpoint, releasedOnce, -1, false);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        release(limit, endpoint, releasedOnce, -1, false);
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        release(limit, endpoint, releasedOnce, -1, false);
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            }
+        } finally {
+            if (!async) {
+                int status = response.getStatus();
+                // 304 and 4xx answer before the work is done, their latency says nothing about load
+                boolean sample = status != HttpStatus.NOT_MODIFIED.value() && (status < 400 || status >= 500);
+                release(limit, endpoint, releasedOnce, sample ? System.nanoTime() - admittedAt : -1, status >= 500);
+            }
+        }
+    }
+
+    // Waits for a slot if allowed, false if rejected. Package-private for benchmarks.
+    boolean admit(EndpointClass endpointClass) {
+        long start = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = limits.get(endpointClass).acquire(mayWait(endpointClass));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        waitTimers.get(endpointClass).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        count(endpointClass, admitted ? "admitted" : "rejected");
+        return admitted;
+    }
+
+    // Slot of an admitted request is free again
+    void done(EndpointClass endpointClass, String endpoint, long rttNanos, boolean failed) {
+        limits.get(endpointClass).release(endpoint, rttNanos, failed);
+    }
+
+    // Package-private for tests
+    AdaptiveLimit limit(EndpointClass endpointClass) {
+        return limits.get(endpointClass);
+    }
+
+    static EndpointClass classify(String method, String path) {
+        if (path.endsWith("/startProcess") || path.endsWith("/stopProcess") || path.endsWith("/killProcess")) {
+            return EndpointClass.PROCESS;
+        }
+        if (method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS") || path.equals("/oib/validate")) {
+            return EndpointClass.READ;
+        }
+        // DELETE /client/{oib}: all requests of the OIB and its process
+        if (method.equals("DELETE") && path.startsWith("/client/") && !path.startsWith("/client/card/")) {
+            return EndpointClass.PROCESS;
+        }
+        return EndpointClass.WRITE;
+    }
+
+    // Method and path with ids and OIBs left out: GET /client/card/{} is one endpoint for its latency
+    static String endpoint(String method, String path) {
+        StringBuilder endpoint = new StringBuilder(method).append(' ');
+        String[] segments = path.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) endpoint.append('/');
+            boolean id = !segments[i].isEmpty() && segments[i].chars().allMatch(Character::isDigit);
+            endpoint.append(id ? "{}" : segments[i]);
+        }
+        return endpoint.toString();
+    }
+
+    // Only when no class with higher priority is waiting
+    private boolean mayWait(EndpointClass endpointClass) {
+        for (EndpointClass higher : EndpointClass.values()) {
+            if (higher == endpointClass) return true;
+            if (limits.get(higher).underPressure()) return false;
+        }
+        return true;
+    }
+
+    private static void release(AdaptiveLimit limit, String endpoint, AtomicBoolean releasedOnce, long rttNanos, boolean failed) {
+        if (releasedOnce.compareAndSet(false, true)) limit.release(endpoint, rttNanos, failed);
+    }
+
+    private void reject(EndpointClass endpointClass, HttpServletResponse response) throws IOException {
+        long retryAfter = retryAfterSeconds.get(endpointClass);
+        log.debug("Request rejected class={} retryAfterS={}", endpointClass, retryAfter);
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), ApiError.of(HttpStatus.TOO_MANY_REQUESTS,
+                "Too many " + endpointClass.name().toLowerCase(Locale.ROOT) + " requests. Try again in " + retryAfter + " s."));
+    }
+
+    private void count(EndpointClass endpointClass, String outcome) {
+        meterRegistry.counter("cardapi.admission.requests",
+                "class", endpointClass.name().toLowerCase(Locale.ROOT), "outcome", outcome).increment();
+    }
+}
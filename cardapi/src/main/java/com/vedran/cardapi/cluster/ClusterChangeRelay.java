@@ -0,0 +1,70 @@
+package com.vedran.cardapi.cluster;
+
+import com.vedran.cardapi.feed.ClientChangeFeed;
+import com.vedran.cardapi.models.ClientChange;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// GET /clients/changes of every node shows the changes of all nodes: changes published on this node
+// are sent in batches to the other live nodes (POST /cluster/changes), which add them to their feed.
+// Best effort: each node gives relayed changes its own offsets, and a node that is down or not
+// reachable misses what was sent meanwhile, as does every node when this queue is full.
+@Slf4j
+@Component
+public class ClusterChangeRelay {
+
+    static final int maxBatch = 500;
+
+    private final ClusterMembership cluster;
+    private final ClusterRouter clusterRouter;
+    private final BlockingQueue<ClientChange> pending;
+    private final Thread sender;
+
+    public ClusterChangeRelay(ClusterMembership cluster, ClusterRouter clusterRouter, ClientChangeFeed changeFeed,
+                              @Value("${cardapi.feed.buffer-size:10000}") int queueSize) {
+        this.cluster = cluster;
+        this.clusterRouter = clusterRouter;
+        this.pending = new LinkedBlockingQueue<>(queueSize);
+        this.sender = new Thread(this::send, "cluster-change-relay");
+        this.sender.setDaemon(true);
+        if (cluster.enabled()) {
+            changeFeed.addListener(this::offer);
+            sender.start();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        sender.interrupt();
+    }
+
+    // On the thread of the request that made the change, never waits
+    private void offer(ClientChange change) {
+        if (!pending.offer(change)) log.warn("Change not relayed, queue is full id={} type={}", change.getId(), change.getType());
+    }
+
+    private void send() {
+        List<ClientChange> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch, maxBatch - 1);
+            for (String node : cluster.live()) {
+                if (!node.equals(cluster.self())) clusterRouter.call(node, HttpMethod.POST, "/cluster/changes", batch, Map.class);
+            }
+            batch.clear();
+        }
+    }
+}
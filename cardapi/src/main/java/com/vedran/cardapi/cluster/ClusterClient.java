@@ -0,0 +1,128 @@
+package com.vedran.cardapi.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vedran.cardapi.controller.IdempotencyStore;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+// HTTP between nodes of the cluster (java.net.http, no extra dependency).
+// Failures come as UncheckedIOException, caller decides if the node is down.
+@Component
+public class ClusterClient {
+
+    // Set on every call between nodes: receiver handles it itself, never forwards it again
+    public static final String forwardedHeader = "X-Cardapi-Forwarded-By";
+
+    // Passed on in both directions, the rest (length, encoding, connection) belongs to one hop
+    static final List<String> requestHeaders = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT,
+            HttpHeaders.IF_NONE_MATCH, IdempotencyStore.header);
+    static final List<String> responseHeaders = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.LOCATION,
+            HttpHeaders.ETAG, HttpHeaders.CACHE_CONTROL, HttpHeaders.LINK, "X-Next-After-Id", "Idempotent-Replayed");
+
+    private final ObjectMapper objectMapper;
+    private final String self;
+    private final Duration timeout;
+    private final Duration pingTimeout;
+    private final HttpClient httpClient;
+
+    public ClusterClient(ObjectMapper objectMapper,
+                         @Value("${cardapi.cluster.self:}") String self,
+                         @Value("${cardapi.cluster.timeout-ms:5000}") long timeoutMs,
+                         @Value("${cardapi.cluster.heartbeat-ms:1000}") long heartbeatMs) {
+        this.objectMapper = objectMapper;
+        this.self = ClusterMembership.normalize(self);
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.pingTimeout = Duration.ofMillis(heartbeatMs);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(pingTimeout)
+                .build();
+    }
+
+    // from: node announcing itself as live to the other node, null only asks
+    public boolean ping(String node, String from) {
+        String query = from == null ? "" : "?from=" + from;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node + "/cluster/members" + query))
+                .timeout(pingTimeout)
+                .header(forwardedHeader, self)
+                .GET()
+                .build();
+        try {
+            return send(request).statusCode() == 200;
+        } catch (UncheckedIOException e) {
+            return false;
+        }
+    }
+
+    // Same method, path, query and body as the request this node received
+    public ResponseEntity<byte[]> forward(String node, HttpServletRequest received, Object body) {
+        String query = received.getQueryString() == null ? "" : "?" + received.getQueryString();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + received.getRequestURI() + query))
+                .timeout(timeout)
+                .header(forwardedHeader, self)
+                .method(received.getMethod(), bodyOf(body));
+        for (String name : requestHeaders) {
+            String value = received.getHeader(name);
+            if (value != null) request.header(name, value);
+        }
+        if (body != null && received.getHeader(HttpHeaders.CONTENT_TYPE) == null) {
+            request.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        }
+        return toResponseEntity(send(request.build()));
+    }
+
+    // Own call of this node to another node, body as JSON
+    public ResponseEntity<byte[]> send(String node, HttpMethod method, String path, Object body) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + path))
+                .timeout(timeout)
+                .header(forwardedHeader, self)
+                .method(method.name(), bodyOf(body));
+        if (body != null) request.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        return toResponseEntity(send(request.build()));
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest request) {
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Call to " + request.uri() + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Call to " + request.uri() + " interrupted"));
+        }
+    }
+
+    private HttpRequest.BodyPublisher bodyOf(Object body) {
+        if (body == null) return HttpRequest.BodyPublishers.noBody();
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cant write body for other node", e);
+        }
+    }
+
+    private static ResponseEntity<byte[]> toResponseEntity(HttpResponse<byte[]> response) {
+        ResponseEntity.BodyBuilder entity = ResponseEntity.status(response.statusCode());
+        for (String name : responseHeaders) {
+            response.headers().allValues(name).forEach(value -> entity.header(name, value));
+        }
+        byte[] body = response.body();
+        return body == null || body.length == 0 ? entity.build() : entity.body(body);
+    }
+}
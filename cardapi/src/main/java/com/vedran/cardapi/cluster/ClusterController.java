@@ -0,0 +1,144 @@
+package com.vedran.cardapi.cluster;
+
+import com.vedran.cardapi.feed.ClientChangeFeed;
+import com.vedran.cardapi.models.ApiError;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.ClientChange;
+import com.vedran.cardapi.process.ProcessEntry;
+import com.vedran.cardapi.process.ProcessLocks;
+import com.vedran.cardapi.process.ProcessRegistry;
+import com.vedran.cardapi.repo.ClientCache;
+import com.vedran.cardapi.repo.ClientRepo;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Calls between nodes, not part of the public API. Only there when cardapi.cluster.nodes is set, and
+// only answers nodes of the cluster: the caller names itself in ClusterClient.forwardedHeader and the
+// call must come from the host of that node.
+@Slf4j
+@RestController
+@ConditionalOnExpression("!'${cardapi.cluster.nodes:}'.isBlank()")
+@RequestMapping(path = "/cluster")
+public class ClusterController {
+
+    private final ClusterMembership cluster;
+    private final ProcessRegistry processRegistry;
+    private final ProcessLocks processLocks;
+    private final ClientRepo clientRepo;
+    private final ClientCache clientCache;
+    private final ClientChangeFeed changeFeed;
+    private final long timeoutMs;
+
+    public ClusterController(ClusterMembership cluster, ProcessRegistry processRegistry, ProcessLocks processLocks,
+                             ClientRepo clientRepo, ClientCache clientCache, ClientChangeFeed changeFeed,
+                             @Value("${cardapi.cluster.timeout-ms:5000}") long timeoutMs) {
+        this.cluster = cluster;
+        this.processRegistry = processRegistry;
+        this.processLocks = processLocks;
+        this.clientRepo = clientRepo;
+        this.clientCache = clientCache;
+        this.changeFeed = changeFeed;
+        this.timeoutMs = timeoutMs;
+    }
+
+    // Heartbeat. With from the node announces itself: answer comes after this node gave away its OIBs,
+    // so the caller reads their processes only after they are written.
+    @GetMapping(path = "members")
+    public ResponseEntity<?> members(@RequestParam(name = "from", required = false) String from,
+                                     HttpServletRequest request) {
+        // A starting node asks before it is live
+        ResponseEntity<ApiError> refused = refuse(request, false);
+        if (refused != null) return refused;
+        if (from != null) {
+            try {
+                cluster.seen(ClusterMembership.normalize(from)).get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("Rebalance for node not done node={}", from, e);
+            }
+        }
+        return ResponseEntity.ok(Map.of("self", cluster.self(), "live", cluster.live()));
+    }
+
+    // Request moved to an OIB of this node (PUT/PATCH on its old owner): its process is written here.
+    // 409 if the OIB has the process of another request, that one stays.
+    @PostMapping(path = "processes/{id}")
+    public ResponseEntity<?> handOver(@PathVariable Long id, HttpServletRequest request) {
+        ResponseEntity<ApiError> refused = refuse(request, true);
+        if (refused != null) return refused;
+        Optional<Client> found = clientRepo.findById(id);
+        if (found.isEmpty()) return ResponseEntity.ok(Map.of("id", id, "started", false));
+        try (ProcessLocks.Held held = processLocks.lock(found.get().getOib())) {
+            // Read again under lock, status and OIB are now current
+            found = clientRepo.findById(id);
+            boolean start = found.isPresent() && held.covers(found.get().getOib())
+                    && found.get().getStatus() != Client.Status.REQUESTED
+                    && found.get().getStatus() != Client.Status.PRODUCED;
+            if (start) {
+                ProcessEntry current = processRegistry.get(found.get().getOib());
+                if (current != null && current.getRequestId() != null && !current.getRequestId().equals(id)) {
+                    log.warn("Process not handed over, OIB has process of other request requestId={} oib={} otherRequestId={}",
+                            id, found.get().getOib(), current.getRequestId());
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(ApiError.of(HttpStatus.CONFLICT,
+                            "OIB " + found.get().getOib() + " has the process of request " + current.getRequestId() + "."));
+                }
+                processRegistry.start(found.get());
+                clientCache.evict(id, found.get().getOib());
+            }
+            return ResponseEntity.ok(Map.of("id", id, "started", start));
+        }
+    }
+
+    // Changes published on another node (ClusterChangeRelay), in their order
+    @PostMapping(path = "changes")
+    public ResponseEntity<?> changes(@RequestBody List<ClientChange> changes, HttpServletRequest request) {
+        ResponseEntity<ApiError> refused = refuse(request, true);
+        if (refused != null) return refused;
+        changes.forEach(changeFeed::relay);
+        return ResponseEntity.ok(Map.of("relayed", changes.size()));
+    }
+
+    // 403 unless caller is another node of cardapi.cluster.nodes (live, if mustBeLive) calling from its own host
+    private ResponseEntity<ApiError> refuse(HttpServletRequest request, boolean mustBeLive) {
+        String node = ClusterMembership.normalize(request.getHeader(ClusterClient.forwardedHeader));
+        boolean member = mustBeLive ? cluster.live().contains(node) : cluster.isPeer(node);
+        if (member && !node.equals(cluster.self()) && fromHostOf(node, request.getRemoteAddr())) return null;
+        log.warn("Cluster call refused path={} node={} remoteAddr={}", request.getRequestURI(), node, request.getRemoteAddr());
+        return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(ApiError.of(HttpStatus.FORBIDDEN, "Only nodes of the cluster can call " + request.getRequestURI() + "."));
+    }
+
+    private static boolean fromHostOf(String node, String remoteAddr) {
+        try {
+            String host = URI.create(node).getHost();
+            if (host == null) return false;
+            InetAddress remote = InetAddress.getByName(remoteAddr);
+            return Arrays.asList(InetAddress.getAllByName(host)).contains(remote);
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.vedran.cardapi.cluster;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Nodes of cardapi.cluster.nodes share one client database and one process folder.
+// Every OIB has one owner among the live nodes: rendezvous hashing (highest weight of node and OIB),
+// so all nodes agree without coordination, and a node that comes or goes moves only its own OIBs.
+// Live nodes are found by heartbeats (GET /cluster/members), a node is down after down-after missed
+// ones or when a call to it fails. Listeners (rebalance) run on one thread, after every change.
+// Without cardapi.cluster.nodes there is one node and it owns every OIB.
+@Slf4j
+@Component
+public class ClusterMembership {
+
+    static final String local = "local";
+
+    // Live nodes with their hash seeds, replaced as a whole on every change
+    private record View(List<String> nodes, long[] seeds) {
+        static View of(List<String> nodes) {
+            List<String> sorted = nodes.stream().sorted().toList();
+            long[] seeds = new long[sorted.size()];
+            for (int i = 0; i < seeds.length; i++) {
+                seeds[i] = seed(sorted.get(i));
+            }
+            return new View(sorted, seeds);
+        }
+    }
+
+    private final String self;
+    private final List<String> peers;
+    private final ClusterClient clusterClient;
+    private final long heartbeatMs;
+    private final int downAfter;
+    private volatile View view;
+    private final Map<String, Integer> misses = new ConcurrentHashMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService rebalancer = Executors.newSingleThreadExecutor(daemon("cluster-rebalance"));
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(daemon("cluster-heartbeat"));
+
+    public ClusterMembership(ClusterClient clusterClient, MeterRegistry meterRegistry,
+                             @Value("${cardapi.cluster.nodes:}") List<String> nodes,
+                             @Value("${cardapi.cluster.self:}") String self,
+                             @Value("${cardapi.cluster.heartbeat-ms:1000}") long heartbeatMs,
+                             @Value("${cardapi.cluster.down-after:3}") int downAfter) {
+        this.clusterClient = clusterClient;
+        this.heartbeatMs = heartbeatMs;
+        this.downAfter = downAfter;
+        List<String> all = nodes.stream().map(ClusterMembership::normalize).filter(node -> !node.isEmpty()).distinct().toList();
+        if (all.isEmpty()) {
+            this.self = local;
+            this.peers = List.of();
+            this.view = View.of(List.of(local));
+        } else {
+            this.self = normalize(self);
+            if (!all.contains(this.self)) {
+                throw new IllegalStateException("cardapi.cluster.self=" + self + " is not one of cardapi.cluster.nodes=" + all);
+            }
+            this.peers = all.stream().filter(node -> !node.equals(this.self)).toList();
+            // Only asks, this node is not ready yet: its shard is loaded from what the others left
+            List<String> live = new ArrayList<>(List.of(this.self));
+            for (String peer : peers) {
+                if (clusterClient.ping(peer, null)) live.add(peer);
+            }
+            this.view = View.of(live);
+            log.info("Cluster starting self={} live={} nodes={}", this.self, view.nodes(), all);
+        }
+        Gauge.builder("cardapi.cluster.nodes", this, membership -> membership.view.nodes().size())
+                .description("Live nodes of the cluster")
+                .register(meterRegistry);
+    }
+
+    public boolean enabled() {
+        return !peers.isEmpty();
+    }
+
+    public String self() {
+        return self;
+    }
+
+    public List<String> live() {
+        return view.nodes();
+    }
+
+    // One of the other nodes of cardapi.cluster.nodes, live or not
+    public boolean isPeer(String node) {
+        return peers.contains(node);
+    }
+
+    // Rendezvous hashing: node with highest weight for this OIB
+    public String owner(long oib) {
+        View current = view;
+        long oibHash = mix(oib);
+        int owner = 0;
+        long best = Long.MIN_VALUE;
+        for (int i = 0; i < current.seeds().length; i++) {
+            long weight = mix(current.seeds()[i] ^ oibHash);
+            if (weight > best) {
+                best = weight;
+                owner = i;
+            }
+        }
+        return current.nodes().get(owner);
+    }
+
+    public boolean owns(long oib) {
+        return !enabled() || self.equals(owner(oib));
+    }
+
+    // Runs on the rebalance thread after every change of live nodes
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    // Announces this node to the others, then takes its own shard and starts heartbeats
+    @EventListener(ApplicationReadyEvent.class)
+    public void join() {
+        if (!enabled()) return;
+        for (String peer : peers) {
+            if (clusterClient.ping(peer, self)) {
+                seen(peer);
+            } else {
+                missed(peer);
+            }
+        }
+        changed();
+        heartbeat.scheduleWithFixedDelay(this::beat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Node answered or announced itself. Done when rebalance for it is done.
+    public CompletableFuture<Void> seen(String node) {
+        misses.remove(node);
+        synchronized (this) {
+            if (!peers.contains(node) || view.nodes().contains(node)) return CompletableFuture.completedFuture(null);
+            List<String> live = new ArrayList<>(view.nodes());
+            live.add(node);
+            view = View.of(live);
+            log.info("Cluster node up node={} live={}", node, view.nodes());
+            return changed();
+        }
+    }
+
+    // Call to node failed, no need to wait for heartbeats
+    public void suspect(String node) {
+        down(node);
+    }
+
+    @PreDestroy
+    public void close() {
+        heartbeat.shutdownNow();
+        rebalancer.shutdownNow();
+    }
+
+    private void beat() {
+        for (String peer : peers) {
+            if (clusterClient.ping(peer, self)) {
+                seen(peer);
+            } else {
+                missed(peer);
+            }
+        }
+    }
+
+    private void missed(String node) {
+        if (misses.merge(node, 1, Integer::sum) >= downAfter) down(node);
+    }
+
+    private synchronized void down(String node) {
+        if (!view.nodes().contains(node)) return;
+        List<String> live = new ArrayList<>(view.nodes());
+        live.remove(node);
+        view = View.of(live);
+        log.warn("Cluster node down node={} live={}", node, view.nodes());
+        changed();
+    }
+
+    private CompletableFuture<Void> changed() {
+        return CompletableFuture.runAsync(() -> {
+            for (Runnable listener : listeners) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    log.error("Cluster rebalance failed live={}", view.nodes(), e);
+                }
+            }
+        }, rebalancer);
+    }
+
+    static String normalize(String node) {
+        String trimmed = node == null ? "" : node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    // FNV-1a of the node URL, same on every node
+    private static long seed(String node) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
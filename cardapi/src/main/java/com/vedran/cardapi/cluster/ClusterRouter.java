@@ -0,0 +1,120 @@
+package com.vedran.cardapi.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vedran.cardapi.models.ApiError;
+import com.vedran.cardapi.models.Client;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sends requests for OIBs of other nodes to their owner, so only one node changes processes of an OIB.
+// Only requests from outside are routed: a forwarded request (forwardedHeader) is handled where it arrives,
+// also when the two nodes do not agree on the owner for a moment (rebalance), so it never goes in circles.
+// Handlers called without a servlet request (tests, benchmarks) are never routed.
+@Slf4j
+@Component
+public class ClusterRouter {
+
+    private final ClusterMembership cluster;
+    private final ClusterClient clusterClient;
+    private final ObjectMapper objectMapper;
+
+    public ClusterRouter(ClusterMembership cluster, ClusterClient clusterClient, ObjectMapper objectMapper) {
+        this.cluster = cluster;
+        this.clusterClient = clusterClient;
+        this.objectMapper = objectMapper;
+    }
+
+    // True if this request can still be sent to other nodes
+    public boolean routes() {
+        HttpServletRequest request = currentRequest();
+        return cluster.enabled() && request != null && request.getHeader(ClusterClient.forwardedHeader) == null;
+    }
+
+    // Response of the owner of this OIB, null if this node handles the request itself
+    public ResponseEntity<?> route(Long oib, Object body) {
+        if (oib == null || !routes()) return null;
+        String owner = cluster.owner(oib);
+        if (owner.equals(cluster.self())) return null;
+        try {
+            return clusterClient.forward(owner, currentRequest(), body);
+        } catch (UncheckedIOException e) {
+            cluster.suspect(owner);
+            log.warn("Owner node not reachable node={} oib={}", owner, oib, e);
+            return unavailable(owner);
+        }
+    }
+
+    // Ids of requests whose OIB another node owns, grouped by that node
+    public Map<String, List<Long>> foreign(Collection<Client> clients) {
+        Map<String, List<Long>> byNode = new LinkedHashMap<>();
+        for (Client client : clients) {
+            String owner = cluster.owner(client.getOib());
+            if (!owner.equals(cluster.self())) byNode.computeIfAbsent(owner, node -> new ArrayList<>()).add(client.getId());
+        }
+        return byNode;
+    }
+
+    // Own call to another node, body of the answer read as type. Null if node failed or did not answer with 2xx.
+    public <T> T call(String node, HttpMethod method, String path, Object body, Class<T> type) {
+        try {
+            ResponseEntity<byte[]> response = clusterClient.send(node, method, path, body);
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                log.warn("Call to node failed node={} path={} status={}", node, path, response.getStatusCode().value());
+                return null;
+            }
+            return response.getBody() == null ? null : objectMapper.readValue(response.getBody(), type);
+        } catch (UncheckedIOException e) {
+            cluster.suspect(node);
+            log.warn("Node not reachable node={} path={}", node, path, e);
+            return null;
+        } catch (IOException e) {
+            log.warn("Invalid answer of node node={} path={}", node, path, e);
+            return null;
+        }
+    }
+
+    // Same call to every other live node, answers of nodes that did not fail
+    public <T> List<T> broadcast(HttpMethod method, String path, Class<T> type) {
+        List<T> answers = new ArrayList<>();
+        if (!routes()) return answers;
+        for (String node : cluster.live()) {
+            if (node.equals(cluster.self())) continue;
+            T answer = call(node, method, path, null, type);
+            if (answer != null) answers.add(answer);
+        }
+        return answers;
+    }
+
+    // Request moved to an OIB of another node: that node writes the process from DB, as it is now
+    public void handOver(Client client) {
+        String owner = cluster.owner(client.getOib());
+        if (call(owner, HttpMethod.POST, "/cluster/processes/" + client.getId(), null, Map.class) == null) {
+            // Reconcile at next startup of the owner writes it
+            log.error("Process not handed over requestId={} oib={} node={}", client.getId(), client.getOib(), owner);
+        }
+    }
+
+    private static ResponseEntity<ApiError> unavailable(String node) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(ApiError.of(HttpStatus.SERVICE_UNAVAILABLE, "Node " + node + " is not reachable. Try again."));
+    }
+
+    private static HttpServletRequest currentRequest() {
+        return RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+                ? attributes.getRequest() : null;
+    }
+}
@@ -1,34 +1,112 @@
 package com.vedran.cardapi.controller;
 
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vedran.cardapi.cluster.ClusterMembership;
+import com.vedran.cardapi.cluster.ClusterRouter;
+import com.vedran.cardapi.feed.ClientChangeFeed;
+import com.vedran.cardapi.models.ApiError;
+import com.vedran.cardapi.models.BulkResult;
 import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.ClientChange;
+import com.vedran.cardapi.models.Oib;
+import com.vedran.cardapi.models.OibValidationResult;
+import com.vedran.cardapi.models.ProcessBatchResult;
+import com.vedran.cardapi.models.StatusCount;
+import com.vedran.cardapi.process.ProcessEntry;
+import com.vedran.cardapi.process.ProcessLocks;
+import com.vedran.cardapi.process.ProcessRegistry;
+import com.vedran.cardapi.production.CardProductionPipeline;
+import com.vedran.cardapi.repo.ClientCache;
+import com.vedran.cardapi.repo.ClientFields;
 import com.vedran.cardapi.repo.ClientRepo;
+import com.vedran.cardapi.repo.ClientSpecs;
+import com.vedran.cardapi.service.ClientBulkService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Example;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
-
-import java.io.File;
-import java.io.FileWriter;
-import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
-import java.util.Scanner;
-
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Slf4j
 @Controller
 @RequestMapping(path="/")
 public class ApiControllers {
 
-    final String pathOfFolder = "StartedCardMakingProcesses";
-    final String fileDataDelimiter = ":";
-    final String fileNameDelimiter = "--";
-    final File dirOfStartedCardMakingProcesses = new File(pathOfFolder);
+    static final String NDJSON = "application/x-ndjson";
 
-    private static final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd--HH-mm-ss");
     @Autowired
     private ClientRepo clientRepo;
+    @Autowired
+    private ClientCache clientCache;
+    @Autowired
+    private ProcessRegistry processRegistry;
+    @Autowired
+    private ProcessLocks processLocks;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ClientBulkService clientBulkService;
+    @Autowired
+    private CardProductionPipeline cardProduction;
+    @Autowired
+    private ClientChangeFeed changeFeed;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+    @Autowired
+    private ClusterRouter clusterRouter;
+    @Autowired
+    private ClusterMembership cluster;
+
+    @Value("${cardapi.bulk.batch-size:500}")
+    private int bulkBatchSize;
+    @Value("${cardapi.clients.page-size:100}")
+    private int defaultPageSize;
+    @Value("${cardapi.clients.max-page-size:1000}")
+    private int maxPageSize;
+    @Value("${cardapi.clients.stream-fetch-size:500}")
+    private int streamFetchSize;
+    @Value("${cardapi.process.batch-max-size:1000}")
+    private int maxProcessBatchSize;
 
     @GetMapping(path = "help")
     public @ResponseBody String getStarted() {
@@ -37,8 +115,15 @@ public class ApiControllers {
                 + "\nUse GET /help to get list of available apis."
                 + "\nUse GET /clients to retrieve all requests by all Clients."
                 + "\nFeel free to use query params (oib, lastName, firstName or status) for filtering."
+                + "\nResults are paged by id, use query params afterId and limit (see Link header for next page)."
+                + "\nUse Accept: application/x-ndjson to stream all results as one JSON per line."
+                + "\nUse query param fields (e.g. fields=id,status) to get only these fields, also on GET /client/{oib}."
+                + "\nUse GET /clients/count to get number of requests per status."
+                + "\nUse GET /clients/changes to follow every change as Server-Sent Events (resume with Last-Event-ID)."
                 + "\n"
                 + "\nUse POST /client/card to add new Client request for card."
+                + "\nUse POST /client/card/bulk to add many Client requests (JSON array or application/x-ndjson)."
+                + "\nUse POST /oib/validate with JSON array of OIBs to check them before upload."
                 + "\nUse GET /client/{oib} to retrieve data of all Client requests."
                 + "\nUse GET /client/card/{id} to retrieve data of that specific requests."
                 + "\nUse PATCH /client/card/{id} to update that specific request."
@@ -48,131 +133,318 @@ public class ApiControllers {
                 + "\n"
                 + "\nUse POST /client/card/{id}/startProcess to start the creating card process."
                 + "\nUse DELETE /client/card/{id}/stopProcess to stop the creating card process."
-                + "\nUse DELETE /clients/killProcess to stop all requests by Clients.";
+                + "\nUse POST /clients/startProcess and DELETE /clients/stopProcess with JSON array of ids for many requests at once."
+                + "\nUse DELETE /clients/killProcess to stop all requests by Clients."
+                + "\nSend Idempotency-Key header with POST /client/card and startProcess to retry them safely."
+                + "\nStarted requests are made in background, status is PRODUCED when the card is done."
+                + "\n"
+                + "\nHits and misses of GET /client/{oib} and GET /client/card/{id} are metrics cache.gets"
+                + "\n(cache=clientsByOib, clientsById) at /actuator/metrics and /actuator/prometheus."
+                + "\n"
+                + "\nErrors have HTTP status 4xx/5xx and JSON body {status, error, message}."
+                + "\nUnder overload requests get 429 Too Many Requests, retry after the seconds in Retry-After header."
+                + "\nGET responses have ETag, send it back as If-None-Match to get 304 Not Modified if nothing changed."
+                + "\nIn a cluster GET /clients and GET /clients/count have no ETag.";
     }
 
     @GetMapping(path = "clients")
-    public @ResponseBody Iterable<Client> getMeAllClients(
+    public ResponseEntity<?> getMeAllClients(
             @RequestParam(name = "lastName", required = false) String lastName,
             @RequestParam(name = "firstName", required = false) String firstName,
             @RequestParam(name = "status", required = false) Client.Status status,
-            @RequestParam(name = "oib", required = false) Long oib
+            @RequestParam(name = "oib", required = false) Long oib,
+            @RequestParam(name = "afterId", required = false) Long afterId,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestParam(name = "fields", required = false) String fields,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
-        // Check for all queries:
-        Client example = new Client();
-        boolean flagAtLeastSomething = false;
-        if (firstName != null) {
-            flagAtLeastSomething = true;
-            example.setFirstName(firstName);
+        if (oib != null && !checkOib(oib)) return error(HttpStatus.BAD_REQUEST, "Invalid OIB: " + oib);
+        List<String> selected = ClientFields.parse(fields);
+        if (fields != null && selected == null) return invalidFields(fields);
+        // Taken before the query: a change after it gives a newer tag, never an old tag on new data
+        String etag = tableETag();
+        if (notModified(ifNoneMatch, etag)) return notModifiedResponse(etag);
+        // Keyset pagination: next page starts after the last id of this one
+        int pageSize = limit == null || limit <= 0 ? defaultPageSize : Math.min(limit, maxPageSize);
+        Specification<Client> filter = clientFilter(lastName, firstName, status, oib);
+        List<?> page;
+        Long lastId = null;
+        if (selected == null) {
+            List<Client> clients = clientRepo.findPage(filter, afterId, pageSize);
+            if (!clients.isEmpty()) lastId = clients.get(clients.size() - 1).getId();
+            page = clients;
+        } else {
+            // Only selected columns are read from DB
+            List<Map<String, Object>> rows = clientRepo.findPage(filter, afterId, pageSize, selected);
+            if (!rows.isEmpty()) lastId = (Long) rows.get(rows.size() - 1).get("id");
+            page = rows;
         }
-        if (lastName != null) {
-            flagAtLeastSomething = true;
-            example.setLastName(lastName);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+        if (etag != null) response.eTag(etag);
+        if (page.size() == pageSize) {
+            Long nextAfterId = lastId;
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("afterId", nextAfterId)
+                    .replaceQueryParam("limit", pageSize)
+                    .toUriString();
+            response.header("X-Next-After-Id", nextAfterId.toString());
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
         }
-        if (status != null) {
-            flagAtLeastSomething = true;
-            example.setStatus(status);
+        return response.body(page);
+    }
+
+    @GetMapping(path = "clients", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamMeAllClients(
+            @RequestParam(name = "lastName", required = false) String lastName,
+            @RequestParam(name = "firstName", required = false) String firstName,
+            @RequestParam(name = "status", required = false) Client.Status status,
+            @RequestParam(name = "oib", required = false) Long oib,
+            @RequestParam(name = "fields", required = false) String fields
+    ) {
+        if (oib != null && !checkOib(oib)) return jsonError(error(HttpStatus.BAD_REQUEST, "Invalid OIB: " + oib));
+        List<String> selected = ClientFields.parse(fields);
+        if (fields != null && selected == null) return jsonError(invalidFields(fields));
+        Specification<Client> filter = clientFilter(lastName, firstName, status, oib);
+        StreamingResponseBody body = outputStream -> {
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            readOnly.executeWithoutResult(transaction -> {
+                try (Stream<?> clients = selected == null
+                        ? clientRepo.streamAll(filter, streamFetchSize)
+                        : clientRepo.streamAll(filter, streamFetchSize, selected)) {
+                    OutputStream out = new BufferedOutputStream(outputStream);
+                    long rows = 0;
+                    Iterator<?> iterator = clients.iterator();
+                    while (iterator.hasNext()) {
+                        out.write(objectMapper.writeValueAsBytes(iterator.next()));
+                        out.write('\n');
+                        // First row goes out right away, then once per fetch
+                        if (++rows % streamFetchSize == 1) out.flush();
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    // Instead of polling GET /clients: events of every create/update/delete/start/stop from now on,
+    // or after Last-Event-ID (header or query param) while it is still in buffer
+    @GetMapping(path = "clients/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamClientChanges(
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(name = "lastEventId", required = false) String lastEventIdParam
+    ) {
+        return changeFeed.subscribe(lastEventId != null ? lastEventId : lastEventIdParam);
+    }
+
+    // Count of requests per status, 0 for statuses without requests
+    @GetMapping(path = "clients/count")
+    public ResponseEntity<?> countClientsByStatus(
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String etag = tableETag();
+        if (notModified(ifNoneMatch, etag)) return notModifiedResponse(etag);
+        Map<Client.Status, Long> counts = new LinkedHashMap<>();
+        for (Client.Status status : Client.Status.values()) {
+            counts.put(status, 0L);
         }
-        if (oib != null && checkOib(oib)) {
-            flagAtLeastSomething = true;
-            example.setOib(oib);
+        for (StatusCount statusCount : clientRepo.countByStatus()) {
+            counts.put(statusCount.getStatus(), statusCount.getCount());
         }
-        if (flagAtLeastSomething) return clientRepo.findAll(Example.of(example));
-
-        //Else: Default - Get all
-        return clientRepo.findAll();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+        if (etag != null) response.eTag(etag);
+        return response.body(counts);
     }
 
     @GetMapping(path = "client/{oib}")
-    public @ResponseBody Object getMeClient(@PathVariable Long oib) {
-        if (checkOib(oib)) {
-            return clientRepo.findByOib(oib);
-            // Will return Empty List if there is none
-        }
-        return "ERROR: Invalid OIB: " + oib;
+    public ResponseEntity<?> getMeClient(@PathVariable Long oib,
+                                         @RequestParam(name = "fields", required = false) String fields,
+                                         @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (!checkOib(oib)) return error(HttpStatus.BAD_REQUEST, "Invalid OIB: " + oib);
+        // Owner changes processes of this OIB, rows are read from DB (no cache in a cluster)
+        ResponseEntity<?> routed = clusterRouter.route(oib, null);
+        if (routed != null) return routed;
+        List<String> selected = ClientFields.parse(fields);
+        if (fields != null && selected == null) return invalidFields(fields);
+        // Will return Empty List if there is none
+        List<Client> clients = clientCache.findByOib(oib);
+        String etag = listETag(clients, fields);
+        if (notModified(ifNoneMatch, etag)) return notModifiedResponse(etag);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache());
+        if (selected == null) return response.body(clients);
+        // Few rows, already cached as whole Clients: only the response is smaller
+        return response.body(clients.stream().map(client -> ClientFields.of(client, selected)).toList());
     }
 
     @GetMapping(path = "client/card/{id}")
-    public @ResponseBody Object getMeClientRequest(@PathVariable Long id) {
-        if (id != null && id > 0) {
-            try {
-                Client thisClient = clientRepo.findById(id).get();
-                return thisClient;
-            } catch (Exception e) {
-                // Missing Client Request
-                return "ERROR: Client request under ID: " + id + " does not exist.";
-            }
-        }
-
-        return "ERROR: Invalid ID: " + id;
+    public ResponseEntity<?> getMeClientRequest(@PathVariable Long id,
+                                                @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (id == null || id <= 0) return error(HttpStatus.BAD_REQUEST, "Invalid ID: " + id);
+        // Owner of its OIB answers, as for GET client/{oib}
+        ResponseEntity<?> routed = routeById(id);
+        if (routed != null) return routed;
+        Optional<Client> thisClient = clientCache.findById(id);
+        if (thisClient.isEmpty()) return notFound(id);
+        // Every save bumps version, so id and version name the representation
+        String etag = "\"" + id + "-" + thisClient.get().getVersion() + "\"";
+        if (notModified(ifNoneMatch, etag)) return notModifiedResponse(etag);
+        return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(thisClient.get());
     }
 
+    // With Idempotency-Key a retry gets the response of the first call instead of a second request
     @PostMapping(path = "client/card")
-    public @ResponseBody Object addClientRequest(@RequestBody Client client) {
+    public ResponseEntity<?> addClientRequest(@RequestBody Client client,
+                                              @RequestHeader(name = IdempotencyStore.header, required = false) String idempotencyKey) {
+        ResponseEntity<?> routed = clusterRouter.route(client.getOib(), client);
+        if (routed != null) return routed;
+        return idempotencyStore.execute("POST client/card", idempotencyKey,
+                Arrays.asList(client.getOib(), client.getFirstName(), client.getLastName()),
+                () -> createClientRequest(client));
+    }
+
+    private ResponseEntity<?> createClientRequest(Client client) {
         List<String> missingDataList = checkIfDataOk_Client(client);
         if (!missingDataList.isEmpty()) {
-            String missingData = "";
-            boolean flagFirst = true;
-            for (String mData : missingDataList) {
-                if (flagFirst) {
-                    missingData = mData;
-                    flagFirst = false;
-                } else {
-                    missingData = missingData + ", " + mData;
-                }
-            }
-            return "ERROR: Client request not created. Missing data: " + missingData;
+            String missingData = joinMissingData(missingDataList);
+            return error(HttpStatus.BAD_REQUEST, "Client request not created. Missing data: " + missingData);
+        }
+        if (!checkOib(client.getOib())) {
+            return error(HttpStatus.BAD_REQUEST, "Client request not created. Invalid OIB: " + client.getOib());
         }
         client.setStatus(Client.Status.REQUESTED); // init status
         clientRepo.save(client);
-        return client;
+        clientCache.evict(null, client.getOib());
+        changeFeed.publish(ClientChange.Type.CREATED, client);
+        return created(client);
     }
 
-    @PutMapping(path = "client/card/{id}")
-    public @ResponseBody Object overwriteClientRequest(@PathVariable Long id, @RequestBody Client client) {
-        List<String> missingDataList = checkIfDataOk_Client(client);
-        if (!missingDataList.isEmpty()) {
-            String missingData = "";
-            boolean flagFirst = true;
-            for (String mData : missingDataList) {
-                if (flagFirst) {
-                    missingData = mData;
-                    flagFirst = false;
-                } else {
-                    missingData = missingData + ", " + mData;
+    @PostMapping(path = "client/card/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON})
+    public @ResponseBody BulkResult addClientRequests(InputStream body) throws IOException {
+        // JSON array or one JSON per line, read one record at a time
+        BulkResult result = new BulkResult();
+        List<Client> batch = new ArrayList<>(bulkBatchSize);
+        List<BulkResult.Record> batchRecords = new ArrayList<>(bulkBatchSize);
+        try (MappingIterator<Client> records = objectMapper.readerFor(Client.class).readValues(body)) {
+            int index = 0;
+            while (true) {
+                Client client;
+                try {
+                    if (!records.hasNextValue()) break;
+                    client = records.nextValue();
+                } catch (JsonProcessingException e) {
+                    // Can not continue reading after broken JSON
+                    result.getResults().add(new BulkResult.Record(index, null, "Invalid JSON. Rest of request is ignored."));
+                    break;
                 }
-            }
-            return "ERROR: Client request not created/updated. Missing data: " + missingData;
-        }
-        if (id != null && id > 0) {
-            // Everything OK -> Update process and then save
-            client.setId(id);
-            try {
-                Client thisOldClient = clientRepo.findById(id).get();
-                client.setStatus(thisOldClient.getStatus()); // Get existing status
-                if (!(Client.Status.REQUESTED == thisOldClient.getStatus())) {
-                    //Update if process started/inactive:
-                    updateProcess(client, thisOldClient.getOib());
+                BulkResult.Record record = new BulkResult.Record(index++, null, null);
+                result.getResults().add(record);
+                List<String> missingDataList = checkIfDataOk_Client(client);
+                if (!missingDataList.isEmpty()) {
+                    record.setError("Client request not created. Missing data: " + joinMissingData(missingDataList));
+                    continue;
                 }
-            } catch (Exception e) {
-                // There was no client on this ID.
+                if (!checkOib(client.getOib())) {
+                    record.setError("Client request not created. Invalid OIB: " + client.getOib());
+                    continue;
+                }
+                client.setId(null); // ID is always created by DB
                 client.setStatus(Client.Status.REQUESTED); // init status
+                batch.add(client);
+                batchRecords.add(record);
+                if (batch.size() >= bulkBatchSize) insertBulkBatch(batch, batchRecords);
             }
+        }
+        insertBulkBatch(batch, batchRecords);
 
-            // If new ID value is given:
-            Client newValue = clientRepo.save(client);
+        for (BulkResult.Record record : result.getResults()) {
+            if (record.getId() != null) result.setCreated(result.getCreated() + 1);
+        }
+        result.setReceived(result.getResults().size());
+        result.setRejected(result.getReceived() - result.getCreated());
+        return result;
+    }
 
-            return newValue;
+    @PostMapping(path = "oib/validate")
+    public @ResponseBody OibValidationResult validateOibs(@RequestBody long[] oibs) {
+        OibValidationResult result = new OibValidationResult();
+        for (int i = 0; i < oibs.length; i++) {
+            if (!Oib.isValid(oibs[i])) result.getInvalids().add(new OibValidationResult.Record(i, oibs[i]));
         }
+        result.setReceived(oibs.length);
+        result.setInvalid(result.getInvalids().size());
+        result.setValid(oibs.length - result.getInvalid());
+        return result;
+    }
 
-        return "ERROR: Client request not created/updated. Missing data: id";
+    @PutMapping(path = "client/card/{id}")
+    public ResponseEntity<?> overwriteClientRequest(@PathVariable Long id, @RequestBody Client client) {
+        List<String> missingDataList = checkIfDataOk_Client(client);
+        if (!missingDataList.isEmpty()) {
+            String missingData = joinMissingData(missingDataList);
+            return error(HttpStatus.BAD_REQUEST, "Client request not created/updated. Missing data: " + missingData);
+        }
+        if (!checkOib(client.getOib())) {
+            return error(HttpStatus.BAD_REQUEST, "Client request not created/updated. Invalid OIB: " + client.getOib());
+        }
+        if (id == null || id <= 0) return error(HttpStatus.BAD_REQUEST, "Invalid ID: " + id);
+        Optional<Client> found = clientRepo.findById(id);
+        // Owner of the OIB holding the process, or of the new OIB if request is created
+        ResponseEntity<?> routed = clusterRouter.route(found.map(Client::getOib).orElse(client.getOib()), client);
+        if (routed != null) return routed;
+        if (found.isPresent()) {
+            try (ProcessLocks.Held held = processLocks.lock(found.get().getOib(), client.getOib())) {
+                // Read again under lock, status and OIB are now current
+                found = clientRepo.findById(id);
+                if (found.isPresent()) {
+                    Client thisOldClient = found.get();
+                    if (!held.covers(thisOldClient.getOib())) return concurrentChange(id);
+                    // Everything OK -> Save and then update process
+                    client.setId(id);
+                    client.setStatus(thisOldClient.getStatus()); // Get existing status
+                    if (client.getVersion() == null) client.setVersion(thisOldClient.getVersion());
+                    Client newValue = clientRepo.save(client);
+                    if (!(Client.Status.REQUESTED == thisOldClient.getStatus())) {
+                        //Update if process started/inactive:
+                        updateProcess(newValue, thisOldClient.getOib());
+                    }
+                    clientCache.evict(id, thisOldClient.getOib(), newValue.getOib());
+                    changeFeed.publish(ClientChange.Type.UPDATED, newValue);
+                    return ResponseEntity.ok(newValue);
+                }
+            }
+        }
+        // There was no client on this ID -> New one is created under new ID
+        client.setId(null);
+        client.setVersion(null);
+        client.setStatus(Client.Status.REQUESTED); // init status
+        Client newValue = clientRepo.save(client);
+        clientCache.evict(null, newValue.getOib());
+        changeFeed.publish(ClientChange.Type.CREATED, newValue);
+        return created(newValue);
     }
 
 
     @PatchMapping(path = "client/card/{id}")
-    public @ResponseBody Object updateClientRequest(@PathVariable Long id, @RequestBody Client newData) {
-        try {
-            Client thisClient = clientRepo.findById(id).get();
+    public ResponseEntity<?> updateClientRequest(@PathVariable Long id, @RequestBody Client newData) {
+        if (newData.getOib() != null && !checkOib(newData.getOib())) {
+            return error(HttpStatus.BAD_REQUEST, "Client request under ID: " + id + " not updated. Invalid OIB: " + newData.getOib());
+        }
+        Optional<Client> found = clientRepo.findById(id);
+        if (found.isEmpty()) return notFound(id);
+        ResponseEntity<?> routed = clusterRouter.route(found.get().getOib(), newData);
+        if (routed != null) return routed;
+        try (ProcessLocks.Held held = processLocks.lock(found.get().getOib(), newData.getOib())) {
+            // Read again under lock, status and OIB are now current
+            found = clientRepo.findById(id);
+            if (found.isEmpty()) return notFound(id);
+            Client thisClient = found.get();
+            if (!held.covers(thisClient.getOib())) return concurrentChange(id);
+            if (newData.getVersion() != null && !newData.getVersion().equals(thisClient.getVersion())) {
+                return concurrentChange(id);
+            }
             Long oldOIB = thisClient.getOib();
             if (newData.getFirstName() != null)
                 thisClient.setFirstName(newData.getFirstName());
@@ -183,333 +455,502 @@ public class ApiControllers {
             if (newData.getOib() != null)
                 thisClient.setOib(newData.getOib());
 
-            clientRepo.save(thisClient);
+            thisClient = clientRepo.save(thisClient);
 
             if (!(Client.Status.REQUESTED == thisClient.getStatus())) {
                 //Update if process started/inactive:
                 updateProcess(thisClient, oldOIB);
             }
+            clientCache.evict(id, oldOIB, thisClient.getOib());
+            changeFeed.publish(ClientChange.Type.UPDATED, thisClient);
 
-            return thisClient;
-        } catch (Exception e) {
-            // Patch will reject
-            return "ERROR: Client request under ID: " + id + " does not exist.";
+            return ResponseEntity.ok(thisClient);
         }
     }
 
+    // Returns deleted request, as it was before delete
     @DeleteMapping(path = "client/card/{id}")
-    public @ResponseBody String deleteClientRequest(@PathVariable Long id) {
-        try {
-            // Delete Client Request:
-            Client thisClient = clientRepo.findById(id).get();
+    public ResponseEntity<?> deleteClientRequest(@PathVariable Long id) {
+        Optional<Client> found = clientRepo.findById(id);
+        if (found.isEmpty()) return notFound(id);
+        ResponseEntity<?> routed = clusterRouter.route(found.get().getOib(), null);
+        if (routed != null) return routed;
+        try (ProcessLocks.Held held = processLocks.lock(found.get().getOib())) {
+            // Read again under lock, status and OIB are now current
+            found = clientRepo.findById(id);
+            if (found.isEmpty()) return notFound(id);
+            Client thisClient = found.get();
+            if (!held.covers(thisClient.getOib())) return concurrentChange(id);
             thisClient.setStatus(Client.Status.INACTIVE);
-            // Stop the process if started:
-            String[] fileData = checkIfProcessStarted(thisClient.getOib());
-            if (fileData != null) {
-                if (fileData[0] != null) {
-                    try {
-                        if (Long.parseLong(fileData[0]) == id) {
-                            //Set to inactive
-                            updateProcess(thisClient, null);
-                        }
-                    } catch (Exception e) {
-                        // Do nothing
-                    }
-                } // Else Do nothing
+            // Stop the process if started by this request:
+            if (id.equals(requestIdOf(processRegistry.get(thisClient.getOib())))) {
+                //Set to inactive
+                updateProcess(thisClient, null);
             }
             clientRepo.deleteById(id);
-            return "Client request ID: " + thisClient.getId() + " is deleted."
-                    + "\nData: " + thisClient.getFirstName() + " " + thisClient.getLastName()
-                    + ", OIB: " + thisClient.getOib() + ", Status: " + thisClient.getStatus() + ".";
-        } catch (Exception e) {
-            return "ERROR: Client request under ID: " + id + " does not exist.";
+            clientCache.evict(id, thisClient.getOib());
+            changeFeed.publish(ClientChange.Type.DELETED, thisClient);
+            return ResponseEntity.ok(thisClient);
         }
     }
 
+    // Returns all deleted requests of this OIB
     @DeleteMapping(path = "client/{oib}")
-    public @ResponseBody String deleteClientRequests(@PathVariable Long oib) {
-        if (oib == null || !checkOib(oib)) return "ERROR: Invalid OIB.";
-        try {
+    public ResponseEntity<?> deleteClientRequests(@PathVariable Long oib) {
+        if (!checkOib(oib)) return error(HttpStatus.BAD_REQUEST, "Invalid OIB: " + oib);
+        // Owner holds the process of this OIB
+        ResponseEntity<?> routed = clusterRouter.route(oib, null);
+        if (routed != null) return routed;
+        try (ProcessLocks.Held held = processLocks.lock(oib)) {
             List<Client> allRequests = clientRepo.findByOib(oib);
-            if (allRequests.isEmpty()) return "ERROR: No Client requests found for OIB: " + oib;
-            String output = "";
-            boolean flagFirst = true;
-            for (Client thisClient : allRequests) {
-                clientRepo.deleteById(thisClient.getId());
-                if (flagFirst) {
-                    flagFirst = false;
-                    output = "Client request ID: " + thisClient.getId() + " is deleted."
-                            + "\nData: " + thisClient.getFirstName() + " " + thisClient.getLastName()
-                            + ", OIB: " + thisClient.getOib() + ", Status: " + thisClient.getStatus() + ".";
-                } else {
-                    output = output + "\n\nClient request ID: " + thisClient.getId() + " is deleted."
-                            + "\nData: " + thisClient.getFirstName() + " " + thisClient.getLastName()
-                            + ", OIB: " + thisClient.getOib() + ", Status: " + thisClient.getStatus() + ".";
-                }
-                thisClient.setStatus(Client.Status.INACTIVE);
-                updateProcess(thisClient, null);
-            }
+            if (allRequests.isEmpty()) return error(HttpStatus.NOT_FOUND, "No Client requests found for OIB: " + oib);
+            // One statement for all requests of this OIB
+            clientRepo.deleteAllByOibInBulk(oib);
+            clientCache.evictIds(allRequests.stream().map(Client::getId).toList());
+            clientCache.evict(null, oib);
             //Set process to inactive --> Delete
             stopProcess(oib);
-            return output;
-        } catch (Exception e) {
-            return "ERROR: Client requests are not deleted. Internal Server Problem.";
+            allRequests.forEach(deleted -> changeFeed.publish(ClientChange.Type.DELETED, deleted));
+            return ResponseEntity.ok(allRequests);
         }
     }
 
+    // Returns request with outcome STARTED or ALREADY_STARTED, CONFLICT and PRODUCED are errors (409)
     @PostMapping(path = "client/card/{id}/startProcess")
-    public @ResponseBody Object startClientRequest(@PathVariable Long id) {
-        try {
-            Client thisClient = clientRepo.findById(id).get();
+    public ResponseEntity<?> startClientRequest(@PathVariable Long id,
+                                                @RequestHeader(name = IdempotencyStore.header, required = false) String idempotencyKey) {
+        // Before the key is taken, so the owner keeps it and a retry on any node gets the same response
+        ResponseEntity<?> routed = routeById(id);
+        if (routed != null) return routed;
+        return idempotencyStore.execute("POST client/card/" + id + "/startProcess", idempotencyKey, null,
+                () -> startClientRequest(id));
+    }
+
+    private ResponseEntity<?> startClientRequest(Long id) {
+        Optional<Client> found = clientRepo.findById(id);
+        if (found.isEmpty()) return notFound(id);
+        Client thisClient;
+        try (ProcessLocks.Held held = processLocks.lock(found.get().getOib())) {
+            // Read again under lock, status and OIB are now current
+            found = clientRepo.findById(id);
+            if (found.isEmpty()) return notFound(id);
+            thisClient = found.get();
+            if (!held.covers(thisClient.getOib())) return concurrentChange(id);
+            if (thisClient.getStatus() == Client.Status.PRODUCED) {
+                return error(HttpStatus.CONFLICT, "Card already produced for Client request ID: " + id + ".");
+            }
             if (thisClient.getStatus() == Client.Status.STARTED) {
-                // This is same request:
-                startProcess(thisClient);
-                return "Process already started for Client request ID: " + thisClient.getId() + "."
-                        + "\nData: " + thisClient.getFirstName() + " " + thisClient.getLastName()
-                        + ", OIB: " + thisClient.getOib() + ", Status: " + thisClient.getStatus() + ".";
+                // This is same request, process is written again only if missing or out of date
+                if (!processRegistry.isStarted(thisClient)) startProcess(thisClient);
+                return processResult(thisClient, ProcessBatchResult.Outcome.ALREADY_STARTED);
             }
-            //File check
-            String[] fileData = checkIfProcessStarted(thisClient.getOib());
-            if (fileData == null) {
+            //Process check
+            ProcessEntry entry = processRegistry.get(thisClient.getOib());
+            if (entry == null || id.equals(entry.getRequestId())) {
+                // No process or this is same request -> Start Process and Overwrite file
+            } else if (entry.getRequestId() == null) {
                 //Start Process and Overwrite file
-                thisClient.setStatus(Client.Status.STARTED);
-                startProcess(thisClient);
+                log.warn("Process data corrupted, will be overwritten oib={} requestId={}", thisClient.getOib(), id);
             } else {
-                if (fileData[0] != null) {
-                    try {
-                        if (Long.parseLong(fileData[0]) == id) {
-                            // This is same request:
-                            thisClient.setStatus(Client.Status.STARTED);
-                            startProcess(thisClient);
-                            //return at the end.
-                        } else {
-                            Client thisOtherClient = clientRepo.findById(Long.parseLong(fileData[0])).get();
-                            if (Client.Status.INACTIVE == thisOtherClient.getStatus()) {
-                                // Start next one instead:
-                                thisClient.setStatus(Client.Status.STARTED);
-                                startProcess(thisClient);
-                                //return at the end.
-                            } else {
-                                return "Process already started for different Client request ID: " + thisOtherClient.getId() + "."
-                                        + "\nData: " + thisOtherClient.getFirstName() + " " + thisOtherClient.getLastName()
-                                        + ", OIB: " + thisOtherClient.getOib() + ", Status: " + thisOtherClient.getStatus() + ".";
-                            }
-                        }
-                    } catch (Exception e) {
-                        //Start Process and Overwrite file
-                        System.out.println("ERROR: File Corrupted. Will be overwritten.");
-                        thisClient.setStatus(Client.Status.STARTED);
-                        startProcess(thisClient);
-                    }
-                } else {
-                    //Start Process and Overwrite file
-                    System.out.println("ERROR: File Corrupted. Will be overwritten.");
-                    thisClient.setStatus(Client.Status.STARTED);
-                    startProcess(thisClient);
+                Optional<Client> thisOtherClient = clientRepo.findById(entry.getRequestId());
+                // Start next one instead of INACTIVE (or deleted) one
+                if (thisOtherClient.isPresent() && Client.Status.INACTIVE != thisOtherClient.get().getStatus()) {
+                    return error(HttpStatus.CONFLICT, "Process already started for different Client request ID: "
+                            + entry.getRequestId() + ".");
                 }
             }
+            thisClient.setStatus(Client.Status.STARTED);
+            startProcess(thisClient);
 
-            clientRepo.save(thisClient); //save new status
-
-            return "Process started for Client request ID: " + thisClient.getId() + "."
-                    + "\nData: " + thisClient.getFirstName() + " " + thisClient.getLastName()
-                    + ", OIB: " + thisClient.getOib() + ", Status: " + thisClient.getStatus() + ".";
-        } catch (Exception e) {
-            return "ERROR: Client request under ID: " + id + " does not exist.";
+            thisClient = clientRepo.save(thisClient); //save new status
+            clientCache.evict(id, thisClient.getOib());
+            changeFeed.publish(ClientChange.Type.STARTED, thisClient);
         }
+        // Card is made in background, status goes to PRODUCED when done
+        cardProduction.submit(thisClient);
+
+        return processResult(thisClient, ProcessBatchResult.Outcome.STARTED);
     }
 
+    // Returns request with outcome STOPPED, or NOT_STARTED if it does not hold the process of its OIB
     @DeleteMapping(path = "client/card/{id}/stopProcess")
-    public @ResponseBody Object stopClientRequest(@PathVariable Long id) {
-        try {
-            Client thisClient = clientRepo.findById(id).get();
+    public ResponseEntity<?> stopClientRequest(@PathVariable Long id) {
+        Optional<Client> found = clientRepo.findById(id);
+        if (found.isEmpty()) return notFound(id);
+        ResponseEntity<?> routed = clusterRouter.route(found.get().getOib(), null);
+        if (routed != null) return routed;
+        Client thisClient;
+        try (ProcessLocks.Held held = processLocks.lock(found.get().getOib())) {
+            // Read again under lock, status and OIB are now current
+            found = clientRepo.findById(id);
+            if (found.isEmpty()) return notFound(id);
+            thisClient = found.get();
+            if (!held.covers(thisClient.getOib())) return concurrentChange(id);
+            //Process check, some other ID can be started
+            if (!id.equals(requestIdOf(processRegistry.get(thisClient.getOib())))) {
+                return processResult(thisClient, ProcessBatchResult.Outcome.NOT_STARTED);
+            }
             thisClient.setStatus(Client.Status.INACTIVE);
-            //File check
-            String[] fileData = checkIfProcessStarted(thisClient.getOib());
-            if (fileData == null) {
-                return "Client request ID: " + thisClient.getId() + " not yet started.";
-            } else {
-                if (fileData[0] != null) {
-                    try {
-                        if (Long.parseLong(fileData[0]) == thisClient.getId()) {
-                            //Set to inactive
-                            updateProcess(thisClient, null);
-                        } else {
-                            // Some other ID is started
-                            return "Client request ID: " + thisClient.getId() + " not yet started.";
-                        }
-                    } catch (Exception e) {
-                        return "Client request ID: " + thisClient.getId() + " not yet started.";
-                    }
+            //Set to inactive
+            updateProcess(thisClient, null);
+
+            thisClient = clientRepo.save(thisClient); //save new status
+            clientCache.evict(id, thisClient.getOib());
+            changeFeed.publish(ClientChange.Type.STOPPED, thisClient);
+        }
+
+        return processResult(thisClient, ProcessBatchResult.Outcome.STOPPED);
+    }
+
+    @PostMapping(path = "clients/startProcess")
+    public ResponseEntity<?> startClientRequests(@RequestBody List<Long> ids,
+                                                 @RequestHeader(name = IdempotencyStore.header, required = false) String idempotencyKey) {
+        return idempotencyStore.execute("POST clients/startProcess", idempotencyKey, new ArrayList<>(ids),
+                () -> startClientRequests(ids));
+    }
+
+    private ResponseEntity<?> startClientRequests(List<Long> ids) {
+        if (ids.size() > maxProcessBatchSize) return tooManyIds();
+        List<Long> distinctIds = ids.stream().filter(Objects::nonNull).distinct().toList();
+        return ResponseEntity.ok(perOwner(distinctIds, HttpMethod.POST, "/clients/startProcess", this::startOwnRequests));
+    }
+
+    private ProcessBatchResult startOwnRequests(List<Long> distinctIds) {
+        ProcessBatchResult result = new ProcessBatchResult();
+        List<Client> started = new ArrayList<>();
+        Set<Long> oibs = findAllById(distinctIds).values().stream().map(Client::getOib).collect(Collectors.toSet());
+        try (ProcessLocks.Held held = processLocks.lock(oibs)) {
+            // Read again under lock, status and OIB are now current
+            Map<Long, Client> clients = findAllById(distinctIds);
+            // Requests holding process of these OIBs that are not part of this call, one query for all
+            Set<Long> otherIds = new HashSet<>();
+            for (Client thisClient : clients.values()) {
+                ProcessEntry entry = processRegistry.get(thisClient.getOib());
+                if (entry != null && entry.getRequestId() != null && !clients.containsKey(entry.getRequestId())) {
+                    otherIds.add(entry.getRequestId());
+                }
+            }
+            Map<Long, Client> others = findAllById(otherIds);
+            // OIB -> request holding its process after this call
+            Map<Long, Long> holders = new HashMap<>();
+            for (Long id : distinctIds) {
+                Client thisClient = clients.get(id);
+                ProcessBatchResult.Outcome outcome;
+                if (thisClient == null) {
+                    outcome = ProcessBatchResult.Outcome.NOT_FOUND;
+                } else if (!held.covers(thisClient.getOib())) {
+                    outcome = ProcessBatchResult.Outcome.CONCURRENT_CHANGE;
+                } else if (thisClient.getStatus() == Client.Status.PRODUCED) {
+                    outcome = ProcessBatchResult.Outcome.PRODUCED;
                 } else {
-                    return "Client request ID: " + thisClient.getId() + " not yet started.";
+                    Long oib = thisClient.getOib();
+                    Long holderId = holders.containsKey(oib) ? holders.get(oib) : requestIdOf(processRegistry.get(oib));
+                    Client holder = holderId == null ? null
+                            : clients.containsKey(holderId) ? clients.get(holderId) : others.get(holderId);
+                    if (id.equals(holderId) && thisClient.getStatus() == Client.Status.STARTED) {
+                        outcome = ProcessBatchResult.Outcome.ALREADY_STARTED;
+                    } else if (holder != null && !id.equals(holderId) && holder.getStatus() != Client.Status.INACTIVE) {
+                        outcome = ProcessBatchResult.Outcome.CONFLICT;
+                    } else {
+                        // No process, own process or process of INACTIVE (or missing) request -> start this one
+                        thisClient.setStatus(Client.Status.STARTED);
+                        started.add(thisClient);
+                        outcome = ProcessBatchResult.Outcome.STARTED;
+                    }
+                    if (outcome != ProcessBatchResult.Outcome.CONFLICT) holders.put(oib, id);
                 }
+                result.getResults().add(new ProcessBatchResult.Record(id, outcome, thisClient));
             }
+            changeStatuses(started, Client.Status.STARTED);
+        }
+        // Card is made in background, status goes to PRODUCED when done
+        started.forEach(cardProduction::submit);
+        return batchResult(result, started);
+    }
 
-            clientRepo.save(thisClient); //save new status
+    @DeleteMapping(path = "clients/stopProcess")
+    public ResponseEntity<?> stopClientRequests(@RequestBody List<Long> ids) {
+        if (ids.size() > maxProcessBatchSize) return tooManyIds();
+        List<Long> distinctIds = ids.stream().filter(Objects::nonNull).distinct().toList();
+        return ResponseEntity.ok(perOwner(distinctIds, HttpMethod.DELETE, "/clients/stopProcess", this::stopOwnRequests));
+    }
 
-            return "Process stopped for Client request ID: " + thisClient.getId() + "."
-                    + "\nData: " + thisClient.getFirstName() + " " + thisClient.getLastName()
-                    + ", OIB: " + thisClient.getOib() + ", Status: " + thisClient.getStatus() + ".";
-        } catch (Exception e) {
-            return "ERROR: Client request under ID: " + id + " does not exist.";
+    private ProcessBatchResult stopOwnRequests(List<Long> distinctIds) {
+        ProcessBatchResult result = new ProcessBatchResult();
+        List<Client> stopped = new ArrayList<>();
+        Set<Long> oibs = findAllById(distinctIds).values().stream().map(Client::getOib).collect(Collectors.toSet());
+        try (ProcessLocks.Held held = processLocks.lock(oibs)) {
+            // Read again under lock, status and OIB are now current
+            Map<Long, Client> clients = findAllById(distinctIds);
+            for (Long id : distinctIds) {
+                Client thisClient = clients.get(id);
+                ProcessBatchResult.Outcome outcome;
+                if (thisClient == null) {
+                    outcome = ProcessBatchResult.Outcome.NOT_FOUND;
+                } else if (!held.covers(thisClient.getOib())) {
+                    outcome = ProcessBatchResult.Outcome.CONCURRENT_CHANGE;
+                } else if (!id.equals(requestIdOf(processRegistry.get(thisClient.getOib())))) {
+                    outcome = ProcessBatchResult.Outcome.NOT_STARTED;
+                } else {
+                    thisClient.setStatus(Client.Status.INACTIVE);
+                    stopped.add(thisClient);
+                    outcome = ProcessBatchResult.Outcome.STOPPED;
+                }
+                result.getResults().add(new ProcessBatchResult.Record(id, outcome, thisClient));
+            }
+            // Process stays with status INACTIVE, same as stopProcess
+            changeStatuses(stopped, Client.Status.INACTIVE);
         }
+        return batchResult(result, stopped);
     }
 
+    // Returns number of requests that were STARTED
     @DeleteMapping(path = "clients/killProcess")
-    public @ResponseBody Object stopAllClientRequest() {
-        try {
+    public @ResponseBody Map<String, Object> stopAllClientRequest() {
+        int stopped = 0;
+        // Other nodes remove files of their OIBs first, the last update below catches what they missed
+        for (Map<?, ?> answer : clusterRouter.broadcast(HttpMethod.DELETE, "/clients/killProcess", Map.class)) {
+            if (answer.get("stopped") instanceof Number count) stopped += count.intValue();
+        }
+        try (ProcessLocks.Held held = processLocks.lockAll()) {
             //Remove the files:
-            File[] directoryListing = dirOfStartedCardMakingProcesses.listFiles();
-            File[] directoryListingDelete = directoryListing;
-            if (directoryListing != null) {
-                for (File child : directoryListing) {
-                    child.delete();
-                    System.out.println("File deleted: " + child.getName());
-                }
+            processRegistry.stopAll();
+            // One statement for all started requests
+            stopped += clientRepo.updateStatusInBulk(Client.Status.STARTED, Client.Status.INACTIVE);
+            log.info("All processes stopped requests={}", stopped);
+            changeFeed.publish(ClientChange.Type.ALL_STOPPED, null, null, Client.Status.INACTIVE, null);
+        } finally {
+            // Any cached request could have been STARTED
+            clientCache.evictAll();
+        }
+        return Map.of("stopped", stopped);
+    }
+
+    private void insertBulkBatch(List<Client> batch, List<BulkResult.Record> batchRecords) {
+        if (batch.isEmpty()) return;
+        try {
+            clientBulkService.insertBatch(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                batchRecords.get(i).setId(batch.get(i).getId());
             }
+            clientCache.evictOibs(batch.stream().map(Client::getOib).distinct().toList());
+            batch.forEach(created -> changeFeed.publish(ClientChange.Type.CREATED, created));
         } catch (Exception e) {
-            // Do nothing
+            log.error("Bulk insert of batch failed size={}", batch.size(), e);
+            for (BulkResult.Record record : batchRecords) {
+                record.setError("Client request not created. Internal Server Problem.");
+            }
         }
-        return "All card making processes are stopped";
+        batch.clear();
+        batchRecords.clear();
     }
 
-    private List<String> checkIfDataOk_Client(Client client) {
-        List<String> missingParams = new ArrayList<>();
-        if (client.getOib() == null) missingParams.add("oib");
-        if (client.getFirstName() == null) missingParams.add("firstName");
-        if (client.getLastName() == null) missingParams.add("lastName");
-        //if (client.getStatus() == null) missingParams.add("status"); // Set by Db
+    // In a cluster ids of OIBs owned by other nodes go to them, one call per node.
+    // Results come in order of ids, NODE_UNAVAILABLE for ids of a node that did not answer.
+    private ProcessBatchResult perOwner(List<Long> distinctIds, HttpMethod method, String path,
+                                        Function<List<Long>, ProcessBatchResult> own) {
+        if (!clusterRouter.routes()) return own.apply(distinctIds);
+        Map<String, List<Long>> foreign = clusterRouter.foreign(findAllById(distinctIds).values());
+        if (foreign.isEmpty()) return own.apply(distinctIds);
+        Set<Long> foreignIds = new HashSet<>();
+        foreign.values().forEach(foreignIds::addAll);
+
+        Map<Long, ProcessBatchResult.Record> records = new HashMap<>();
+        int changed = 0;
+        List<ProcessBatchResult> parts = new ArrayList<>();
+        parts.add(own.apply(distinctIds.stream().filter(id -> !foreignIds.contains(id)).toList()));
+        for (Map.Entry<String, List<Long>> node : foreign.entrySet()) {
+            ProcessBatchResult part = clusterRouter.call(node.getKey(), method, path, node.getValue(), ProcessBatchResult.class);
+            if (part == null) {
+                node.getValue().forEach(id -> records.put(id,
+                        new ProcessBatchResult.Record(id, ProcessBatchResult.Outcome.NODE_UNAVAILABLE, null)));
+            } else {
+                parts.add(part);
+            }
+        }
+        for (ProcessBatchResult part : parts) {
+            changed += part.getChanged();
+            part.getResults().forEach(record -> records.put(record.getId(), record));
+        }
+        ProcessBatchResult result = new ProcessBatchResult();
+        distinctIds.forEach(id -> result.getResults().add(records.get(id)));
+        result.setReceived(result.getResults().size());
+        result.setChanged(changed);
+        return result;
+    }
 
-        return missingParams;
+    // One query for all ids, missing ids are not in map
+    private Map<Long, Client> findAllById(Collection<Long> ids) {
+        Map<Long, Client> clients = new HashMap<>();
+        if (ids.isEmpty()) return clients;
+        for (Client thisClient : clientRepo.findAllById(ids)) {
+            clients.put(thisClient.getId(), thisClient);
+        }
+        return clients;
     }
 
-    private boolean checkOib(Long oib) {
-        //OIB has to be sequence of 11 numbers
-        // TODO: Missing full validation of OIB
-        if (oib >= 10000000000l && oib < 100000000000l) {
-            // This is "OK"
-            return true;
+    // Caller holds locks of all OIBs: one UPDATE for all statuses, then one store call for all processes
+    private void changeStatuses(List<Client> clients, Client.Status status) {
+        if (clients.isEmpty()) return;
+        clientRepo.updateStatusByIdsInBulk(clients.stream().map(Client::getId).toList(), status);
+        for (Client thisClient : clients) {
+            // Same as coalesce(version, 0) + 1 of the update
+            thisClient.setVersion(thisClient.getVersion() == null ? 1L : thisClient.getVersion() + 1);
         }
-        return false;
+        processRegistry.startAll(clients);
+        clientCache.evictIds(clients.stream().map(Client::getId).toList());
+        clientCache.evictOibs(clients.stream().map(Client::getOib).distinct().toList());
+        ClientChange.Type type = status == Client.Status.STARTED ? ClientChange.Type.STARTED : ClientChange.Type.STOPPED;
+        clients.forEach(changed -> changeFeed.publish(type, changed));
+    }
+
+    // Response of owner of this request's OIB, null if handled here. DB is read only in a cluster.
+    private ResponseEntity<?> routeById(Long id) {
+        if (!clusterRouter.routes()) return null;
+        return clusterRouter.route(clientRepo.findById(id).map(Client::getOib).orElse(null), null);
+    }
+
+    private static ProcessBatchResult batchResult(ProcessBatchResult result, List<Client> changed) {
+        result.setReceived(result.getResults().size());
+        result.setChanged(changed.size());
+        return result;
+    }
+
+    private static Long requestIdOf(ProcessEntry entry) {
+        return entry == null ? null : entry.getRequestId();
+    }
+
+    // Location of new request is relative, handlers are also called without a servlet request (tests, benchmarks)
+    private static ResponseEntity<Client> created(Client client) {
+        return ResponseEntity.created(URI.create("/client/card/" + client.getId())).body(client);
+    }
+
+    private static ResponseEntity<ProcessBatchResult.Record> processResult(Client client, ProcessBatchResult.Outcome outcome) {
+        return ResponseEntity.ok(new ProcessBatchResult.Record(client.getId(), outcome, client));
+    }
+
+    private static ResponseEntity<ApiError> error(HttpStatus status, String message) {
+        return ApiExceptionHandler.error(status, message);
+    }
+
+    private static ResponseEntity<ApiError> notFound(Long id) {
+        return error(HttpStatus.NOT_FOUND, "Client request under ID: " + id + " does not exist.");
+    }
+
+    private static ResponseEntity<ApiError> concurrentChange(Long id) {
+        return error(HttpStatus.CONFLICT, "Client request under ID: " + id + " was changed by another request. Try again.");
     }
 
-    // If id == null --> will not check for that specific request
-    private String[] checkIfProcessStarted(Long oib) {
-        String[] splitData = null;
-        if (!dirOfStartedCardMakingProcesses.exists()) {
-            dirOfStartedCardMakingProcesses.mkdir();
-            return splitData;
+    // List ETags are weak: Tomcat does not gzip responses with a strong ETag.
+    // For lists of any filter, no DB round trip: position of change feed moves with every change.
+    // Null in a cluster, changes of other nodes reach this feed late: no ETag rather than a stale 304.
+    private String tableETag() {
+        if (cluster.enabled()) return null;
+        return "W/\"" + changeFeed.position() + "\"";
+    }
+
+    // Hash of ids and versions, fields give a different representation of the same rows
+    private static String listETag(List<Client> clients, String fields) {
+        long hash = fields == null ? 0 : fields.hashCode();
+        for (Client client : clients) {
+            hash = 31 * hash + client.getId();
+            hash = 31 * hash + (client.getVersion() == null ? 0 : client.getVersion());
         }
-        File[] directoryListing = dirOfStartedCardMakingProcesses.listFiles();
-        if (directoryListing != null) {
-            for (File child : directoryListing) {
-                //System.out.println(child.getName());
-                if (child.getName().contains(oib + "")) {
-                    try {
-                        Scanner myReader = new Scanner(child);
-                        while (myReader.hasNextLine()) {
-                            String data = myReader.nextLine();
-                            //System.out.println(data);
-                            if (data != null && data.contains(fileDataDelimiter)) {
-                                splitData = data.split(fileDataDelimiter);
-                            }
-                        }
-                        myReader.close();
-                        return splitData;
-                    } catch (Exception e) {
-                        System.out.println("ERROR: File " + child.getName() + " Corrupted.");
-                    }
-                }
-                //System.out.println("File found: " + child.getName());
-            }
-        } else {
-            System.out.println("Missing folder: " + pathOfFolder);
+        return "W/\"" + clients.size() + "-" + Long.toHexString(hash) + "\"";
+    }
+
+    // Weak comparison as for GET: W/ is ignored on both sides
+    static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) return false;
+        String opaque = opaqueTag(etag);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = opaqueTag(tag.trim());
+            if (tag.equals("*") || tag.equals(opaque)) return true;
         }
+        return false;
+    }
 
-        return splitData;
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
     }
 
-    private void startProcess(Client thisClient) {
-        if (!dirOfStartedCardMakingProcesses.exists()) {
-            dirOfStartedCardMakingProcesses.mkdir();
-        }
+    private static ResponseEntity<?> notModifiedResponse(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+    }
 
-        //Cleanup first:
-        stopProcess(thisClient.getOib());
+    // No converter writes ApiError as NDJSON, written here as plain JSON
+    private ResponseEntity<StreamingResponseBody> jsonError(ResponseEntity<ApiError> error) {
+        ApiError body = error.getBody();
+        return ResponseEntity.status(error.getStatusCode()).contentType(MediaType.APPLICATION_JSON)
+                .body(outputStream -> objectMapper.writeValue(outputStream, body));
+    }
 
-        Timestamp timestamp = new Timestamp(System.currentTimeMillis());
-        String fileName = thisClient.getOib() + fileNameDelimiter + timeFormat.format(timestamp) + ".txt";
+    private static ResponseEntity<ApiError> invalidFields(String fields) {
+        return error(HttpStatus.BAD_REQUEST, "Invalid fields: " + fields + ". Allowed: " + String.join(",", ClientFields.all));
+    }
 
-        String dataToSave = thisClient.getId() + fileDataDelimiter
-                + thisClient.getOib() + fileDataDelimiter
-                + thisClient.getFirstName() + fileDataDelimiter
-                + thisClient.getLastName() + fileDataDelimiter
-                + thisClient.getStatus();
+    private ResponseEntity<ApiError> tooManyIds() {
+        return error(HttpStatus.BAD_REQUEST, "Too many ids. Maximum is " + maxProcessBatchSize + ".");
+    }
 
-        // Create a file:
-        try {
-            File myObj = new File(dirOfStartedCardMakingProcesses, fileName);
-            if (myObj.createNewFile()) {
-                FileWriter myWriter = new FileWriter(myObj);
-                myWriter.write(dataToSave);
-                myWriter.close();
-                System.out.println("File created: " + myObj.getName());
-            } else {
-                // This should not happen:
-                System.out.println("File already exists.");
-            }
-        } catch (Exception e) {
-            System.out.println("ERROR: Cant create file: " + dirOfStartedCardMakingProcesses.getName() + "\\" + fileName);
+    // OIB is checked by caller
+    private Specification<Client> clientFilter(String lastName, String firstName, Client.Status status, Long oib) {
+        return ClientSpecs.filter(oib, firstName, lastName, status);
+    }
+
+    // Package-private for benchmarks
+    List<String> checkIfDataOk_Client(Client client) {
+        List<String> missingParams = new ArrayList<>();
+        if (client.getOib() == null) missingParams.add("oib");
+        if (client.getFirstName() == null) missingParams.add("firstName");
+        if (client.getLastName() == null) missingParams.add("lastName");
+        //if (client.getStatus() == null) missingParams.add("status"); // Set by Db
+
+        return missingParams;
+    }
+
+    boolean checkOib(Long oib) {
+        //OIB has to be sequence of 11 numbers, last one is check digit
+        return oib != null && Oib.isValid(oib);
+    }
+
+    static String joinMissingData(List<String> missingDataList) {
+        StringBuilder missingData = new StringBuilder();
+        for (String mData : missingDataList) {
+            if (missingData.length() > 0) missingData.append(", ");
+            missingData.append(mData);
         }
+        return missingData.toString();
+    }
+
+    // Returns split data of the process file or null if process is not started for this OIB. Package-private for benchmarks
+    String[] checkIfProcessStarted(Long oib) {
+        ProcessEntry entry = processRegistry.get(oib);
+        if (entry == null) return null;
+        return entry.getData();
+    }
+
+    private void startProcess(Client thisClient) {
+        processRegistry.start(thisClient);
     }
 
     private void updateProcess(Client thisClient, Long oldOIB) {
         // You can pass oldOIB as null if not changed
-        boolean flagOibCh = false;
-        if (oldOIB != null && thisClient.getOib() != oldOIB) {
-            // OIB changed
-            flagOibCh = true;
+        if (oldOIB == null) oldOIB = thisClient.getOib();
+        //Process check, only the request holding the process updates it (corrupted process has no request id)
+        if (!thisClient.getId().equals(requestIdOf(processRegistry.get(oldOIB)))) return;
+        // Update Process:
+        if (!oldOIB.equals(thisClient.getOib())) stopProcess(oldOIB); // Change of OIB
+        if (processRegistry.owns(thisClient.getOib())) {
+            startProcess(thisClient);
         } else {
-            // OIB is same
-            oldOIB = thisClient.getOib();
-        }
-        try {
-            //File check
-            String[] fileData = checkIfProcessStarted(oldOIB);
-            if (fileData != null) {
-                if (fileData[0] != null) {
-                    try {
-                        if (Long.parseLong(fileData[0]) == thisClient.getId()) {
-                            // Update Process:
-                            if (flagOibCh) stopProcess(oldOIB); // Change of OIB
-                            startProcess(thisClient);
-                            System.out.println("WARNING: Process updated but is now under new name.");
-                        }
-                    } catch (Exception e) {
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // Do nothing
+            // New OIB belongs to another node, it writes the process there
+            clusterRouter.handOver(thisClient);
         }
+        log.info("Process updated oib={} oldOib={} requestId={}", thisClient.getOib(), oldOIB, thisClient.getId());
     }
 
     private void stopProcess(Long oib) {
-        if (!dirOfStartedCardMakingProcesses.exists()) {
-            dirOfStartedCardMakingProcesses.mkdir();
-            return; // There is no file for sure
-        }
-        //Remove the file:
-        File[] directoryListing = dirOfStartedCardMakingProcesses.listFiles();
-        if (directoryListing != null) {
-            for (File child : directoryListing) {
-                if (child.getName().contains(oib + "")) {
-                    child.delete();
-                    System.out.println("File deleted: " + child.getName());
-                    break;
-                }
-            }
-        }
+        processRegistry.stop(oib);
     }
 }
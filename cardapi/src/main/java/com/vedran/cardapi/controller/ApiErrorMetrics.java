@@ -0,0 +1,52 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.models.ApiError;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+// Counts ApiError responses per endpoint and status as cardapi.api.errors, from handlers
+// and from ApiExceptionHandler. Unlike http.server.requests it leaves out 2xx/3xx entirely.
+@ControllerAdvice(assignableTypes = {ApiControllers.class, ApiExceptionHandler.class})
+public class ApiErrorMetrics implements ResponseBodyAdvice<Object> {
+
+    private final MeterRegistry meterRegistry;
+
+    public ApiErrorMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (body instanceof ApiError error) {
+            meterRegistry.counter("cardapi.api.errors",
+                    "method", request.getMethod().name(),
+                    "uri", uriPattern(request),
+                    "status", String.valueOf(error.getStatus())).increment();
+        }
+        return body;
+    }
+
+    // Same uri tag as http.server.requests, e.g. /client/card/{id}
+    private static String uriPattern(ServerHttpRequest request) {
+        if (request instanceof ServletServerHttpRequest servletRequest) {
+            Object pattern = servletRequest.getServletRequest().getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (pattern != null) return pattern.toString();
+        }
+        return "UNKNOWN";
+    }
+}
@@ -0,0 +1,51 @@
+package com.vedran.cardapi.controller;
+
+import com.vedran.cardapi.models.ApiError;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.ErrorResponse;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+
+// Errors thrown out of ApiControllers as ApiError JSON. Expected cases (not found, invalid data,
+// conflicts) are answered by the handlers themselves, without exceptions.
+@Slf4j
+@RestControllerAdvice(assignableTypes = ApiControllers.class)
+public class ApiExceptionHandler {
+
+    // Version check on save failed, another request changed the row since it was read
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ApiError> concurrentChange(OptimisticLockingFailureException e) {
+        return error(HttpStatus.CONFLICT, "Client request was changed by another request. Try again.");
+    }
+
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<ApiError> invalidBody(HttpMessageNotReadableException e) {
+        return error(HttpStatus.BAD_REQUEST, "Invalid JSON.");
+    }
+
+    // e.g. /client/card/abc
+    @ExceptionHandler(MethodArgumentTypeMismatchException.class)
+    public ResponseEntity<ApiError> invalidParameter(MethodArgumentTypeMismatchException e) {
+        return error(HttpStatus.BAD_REQUEST, "Invalid " + e.getName() + ": " + e.getValue());
+    }
+
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<ApiError> unexpected(Exception e) {
+        // Spring MVC exceptions (unsupported media type, missing parameter...) carry their own status
+        if (e instanceof ErrorResponse errorResponse) {
+            HttpStatus status = HttpStatus.valueOf(errorResponse.getStatusCode().value());
+            return error(status, errorResponse.getBody().getDetail());
+        }
+        log.error("Request failed", e);
+        return error(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Problem.");
+    }
+
+    static ResponseEntity<ApiError> error(HttpStatus status, String message) {
+        return ResponseEntity.status(status).body(ApiError.of(status, message));
+    }
+}
@@ -0,0 +1,107 @@
+package com.vedran.cardapi.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// Idempotency-Key of POST endpoints: a retry with the same key gets the first response again
+// instead of running the handler again (no second Client row, no second process write).
+// A retry that comes while the first call still runs waits for it (single flight).
+// Responses are kept up to max-size keys for ttl-ms. 409 and 5xx are not kept, they may
+// succeed when retried. Keys are per endpoint, a key reused with a different body is rejected.
+@Component
+public class IdempotencyStore {
+
+    public static final String header = "Idempotency-Key";
+    static final String replayedHeader = "Idempotent-Replayed";
+
+    private record Entry(Object fingerprint, CompletableFuture<ResponseEntity<?>> response) {
+    }
+
+    private final Cache<String, Entry> entries;
+    private final long waitMs;
+    private final MeterRegistry meterRegistry;
+
+    public IdempotencyStore(MeterRegistry meterRegistry,
+                            @Value("${cardapi.idempotency.max-size:100000}") long maxSize,
+                            @Value("${cardapi.idempotency.ttl-ms:86400000}") long ttlMs,
+                            @Value("${cardapi.idempotency.wait-ms:30000}") long waitMs) {
+        this.meterRegistry = meterRegistry;
+        this.waitMs = waitMs;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .build();
+    }
+
+    // endpoint: e.g. "POST client/card". fingerprint: what the request asks for, compared with equals.
+    // Without key the handler just runs.
+    public ResponseEntity<?> execute(String endpoint, String key, Object fingerprint, Supplier<ResponseEntity<?>> handler) {
+        if (key == null) return handler.get();
+        if (key.isBlank() || key.length() > 255) {
+            return ApiExceptionHandler.error(HttpStatus.BAD_REQUEST, "Invalid " + header + ".");
+        }
+        String cacheKey = endpoint + " " + key;
+        Entry created = new Entry(fingerprint, new CompletableFuture<>());
+        Entry entry = entries.asMap().putIfAbsent(cacheKey, created);
+        if (entry == null) return run(cacheKey, created, handler);
+
+        if (!Objects.equals(entry.fingerprint(), fingerprint)) {
+            count("mismatch");
+            return ApiExceptionHandler.error(HttpStatus.UNPROCESSABLE_ENTITY,
+                    header + " " + key + " was already used for a different request.");
+        }
+        count(entry.response().isDone() ? "replayed" : "collapsed");
+        ResponseEntity<?> response;
+        try {
+            response = entry.response().get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return ApiExceptionHandler.error(HttpStatus.CONFLICT, "Request with " + header + " " + key + " is still running.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for request with same " + header, e);
+        } catch (ExecutionException e) {
+            // First call failed, this one fails the same way (ApiExceptionHandler)
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(replayedHeader, "true")
+                .body(response.getBody());
+    }
+
+    private ResponseEntity<?> run(String cacheKey, Entry entry, Supplier<ResponseEntity<?>> handler) {
+        count("executed");
+        ResponseEntity<?> response;
+        try {
+            response = handler.get();
+        } catch (RuntimeException e) {
+            entries.asMap().remove(cacheKey, entry);
+            entry.response().completeExceptionally(e);
+            throw e;
+        }
+        // Waiting duplicates still get this response
+        if (response.getStatusCode().is5xxServerError() || response.getStatusCode().value() == HttpStatus.CONFLICT.value()) {
+            entries.asMap().remove(cacheKey, entry);
+        }
+        entry.response().complete(response);
+        return response;
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("cardapi.idempotency", "outcome", outcome).increment();
+    }
+}
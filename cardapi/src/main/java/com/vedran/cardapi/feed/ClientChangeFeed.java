@@ -0,0 +1,272 @@
+package com.vedran.cardapi.feed;
+
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.ClientChange;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Changes of Client requests for GET /clients/changes (Server-Sent Events).
+// Last bufferSize events are kept in a ring, so a subscriber can resume after its last event id.
+// publish only stores the event, the dispatcher thread hands subscribers with new events to
+// sender threads, one send at a time per subscriber. The events of a subscriber from its next
+// offset on are its queue: a slow subscriber holds up neither requests nor other subscribers,
+// only its own sender thread, and when it is more than bufferSize events behind it gets a reset.
+// Event id is <epoch>:<offset>, epoch changes on restart, where offsets start again from 1.
+// In a cluster changes of other nodes are relayed in (relay), with offsets of this node.
+@Slf4j
+@Component
+public class ClientChangeFeed {
+
+    static final String changeEvent = "change";
+    // Events after the given id are lost (restart or subscriber too far behind): read GET /clients again
+    static final String resetEvent = "reset";
+
+    private final ClientChange[] ring;
+    private final long epoch = System.currentTimeMillis();
+    private final long heartbeatMs;
+    private final long timeoutMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Offset of last event, 0 if none
+    private long head;
+    // New subscriber waits for its reset or backlog
+    private boolean subscribed;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final List<Consumer<ClientChange>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread dispatcher;
+    // Thread per subscriber with events to send, idle ones end after a minute
+    private final ExecutorService senders;
+
+    private static class Subscriber {
+        final SseEmitter emitter;
+        // Offset of next event to send
+        long next;
+        long lastSentMs = System.currentTimeMillis();
+        // Set while a sender thread has this subscriber
+        final AtomicBoolean sending = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter, long next) {
+            this.emitter = emitter;
+            this.next = next;
+        }
+    }
+
+    public ClientChangeFeed(MeterRegistry meterRegistry,
+                            @Value("${cardapi.feed.buffer-size:10000}") int bufferSize,
+                            @Value("${cardapi.feed.heartbeat-ms:15000}") long heartbeatMs,
+                            @Value("${cardapi.feed.timeout-ms:3600000}") long timeoutMs) {
+        this.ring = new ClientChange[bufferSize];
+        this.heartbeatMs = heartbeatMs;
+        this.timeoutMs = timeoutMs;
+        Gauge.builder("cardapi.feed.subscribers", subscribers, List::size)
+                .description("Open GET /clients/changes streams")
+                .register(meterRegistry);
+        AtomicInteger senderCount = new AtomicInteger();
+        senders = Executors.newCachedThreadPool(task -> {
+            Thread sender = new Thread(task, "client-change-feed-send-" + senderCount.incrementAndGet());
+            sender.setDaemon(true);
+            return sender;
+        });
+        dispatcher = new Thread(this::dispatch, "client-change-feed");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public void publish(ClientChange.Type type, Client client) {
+        publish(type, client.getId(), client.getOib(), client.getStatus(), client.getVersion());
+    }
+
+    public void publish(ClientChange.Type type, Long id, Long oib, Client.Status status, Long version) {
+        ClientChange change = store(type, id, oib, status, version, System.currentTimeMillis());
+        for (Consumer<ClientChange> listener : listeners) {
+            listener.accept(change);
+        }
+    }
+
+    // Change published on another node, listeners do not get it
+    public void relay(ClientChange change) {
+        store(change.getType(), change.getId(), change.getOib(), change.getStatus(), change.getVersion(), change.getTime());
+    }
+
+    // Gets every change published on this node, on the thread that published it: must not block
+    public void addListener(Consumer<ClientChange> listener) {
+        listeners.add(listener);
+    }
+
+    // <epoch>-<offset of last event>: changes whenever anything is published, so it is a
+    // version of the whole client table (all changes go through ApiControllers or production).
+    // Not in a cluster: changes of other nodes come late or not at all.
+    public String position() {
+        lock.lock();
+        try {
+            return epoch + "-" + head;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // lastEventId: id of last event the subscriber has (Last-Event-ID), null for new events only
+    public SseEmitter subscribe(String lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        lock.lock();
+        try {
+            Subscriber subscriber = new Subscriber(emitter, resumeOffset(lastEventId));
+            subscribers.add(subscriber);
+            emitter.onCompletion(() -> subscribers.remove(subscriber));
+            emitter.onTimeout(emitter::complete);
+            emitter.onError(e -> subscribers.remove(subscriber));
+            // Reset and backlog go out right away
+            subscribed = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return emitter;
+    }
+
+    @PreDestroy
+    public void close() {
+        dispatcher.interrupt();
+        senders.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+    }
+
+    private ClientChange store(ClientChange.Type type, Long id, Long oib, Client.Status status, Long version, long time) {
+        lock.lock();
+        try {
+            head++;
+            ClientChange change = new ClientChange(head, type, id, oib, status, version, time);
+            ring[(int) (head % ring.length)] = change;
+            changed.signal();
+            return change;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds lock. Offset of first event to send, -1 if events after lastEventId are lost.
+    private long resumeOffset(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) return head + 1;
+        String[] parts = lastEventId.split(":");
+        try {
+            if (parts.length == 2 && Long.parseLong(parts[0]) == epoch) {
+                long next = Long.parseLong(parts[1]) + 1;
+                if (next >= oldest() && next <= head + 1) return next;
+            }
+        } catch (NumberFormatException e) {
+            // Same as unknown id
+        }
+        return -1;
+    }
+
+    // Caller holds lock
+    private long oldest() {
+        return Math.max(1, head - ring.length + 1);
+    }
+
+    private void dispatch() {
+        long sent = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            lock.lock();
+            try {
+                // Also wakes up for heartbeats and for new subscribers
+                if (head == sent && !subscribed) changed.await(heartbeatMs, TimeUnit.MILLISECONDS);
+                sent = head;
+                subscribed = false;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            for (Subscriber subscriber : subscribers) {
+                // Subscriber still sending gets the new events in its own loop
+                if (!subscriber.sending.compareAndSet(false, true)) continue;
+                try {
+                    senders.execute(() -> drain(subscriber));
+                } catch (RejectedExecutionException e) {
+                    return; // Closed
+                }
+            }
+        }
+    }
+
+    // Sends until the subscriber has every event. Dispatcher skips it meanwhile, so events
+    // published after the last send are checked again once sending is cleared.
+    private void drain(Subscriber subscriber) {
+        try {
+            do {
+                send(subscriber, System.currentTimeMillis());
+                subscriber.sending.set(false);
+            } while (behind(subscriber) && subscriber.sending.compareAndSet(false, true));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away, emitter callbacks may not run if nothing was written yet
+            subscribers.remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+        }
+    }
+
+    private boolean behind(Subscriber subscriber) {
+        lock.lock();
+        try {
+            return subscriber.next <= head;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void send(Subscriber subscriber, long now) throws IOException {
+        List<ClientChange> pending = new ArrayList<>();
+        boolean reset;
+        long from;
+        lock.lock();
+        try {
+            reset = subscriber.next < oldest();
+            from = reset ? oldest() : subscriber.next;
+            for (long offset = from; offset <= head; offset++) {
+                pending.add(ring[(int) (offset % ring.length)]);
+            }
+            subscriber.next = head + 1;
+        } finally {
+            lock.unlock();
+        }
+        if (reset) {
+            // Id of reset is just before oldest event, reconnect after it resumes from there
+            subscriber.emitter.send(SseEmitter.event().name(resetEvent).id(epoch + ":" + (from - 1))
+                    .data(Map.of("epoch", epoch, "oldest", from), MediaType.APPLICATION_JSON));
+        }
+        for (ClientChange change : pending) {
+            subscriber.emitter.send(SseEmitter.event().name(changeEvent).id(epoch + ":" + change.getOffset())
+                    .data(change, MediaType.APPLICATION_JSON));
+        }
+        if (reset || !pending.isEmpty()) {
+            subscriber.lastSentMs = now;
+        } else if (now - subscriber.lastSentMs >= heartbeatMs) {
+            // Keeps proxies from closing an idle stream, also finds closed connections
+            subscriber.emitter.send(SseEmitter.event().comment("heartbeat"));
+            subscriber.lastSentMs = now;
+        }
+    }
+}
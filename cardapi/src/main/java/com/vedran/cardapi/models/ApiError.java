@@ -0,0 +1,21 @@
+package com.vedran.cardapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.http.HttpStatus;
+
+// Body of every error response, same code as the HTTP status
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ApiError {
+    private int status;
+    // Reason phrase of status, e.g. "Not Found"
+    private String error;
+    private String message;
+
+    public static ApiError of(HttpStatus status, String message) {
+        return new ApiError(status.value(), status.getReasonPhrase(), message);
+    }
+}
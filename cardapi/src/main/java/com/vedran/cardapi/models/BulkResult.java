@@ -0,0 +1,30 @@
+package com.vedran.cardapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Response of bulk endpoints: totals and one result per received record
+@Data
+@NoArgsConstructor
+public class BulkResult {
+    private int received;
+    private int created;
+    private int rejected;
+    private List<Record> results = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Record {
+        // Position of record in request, starting at 0
+        private int index;
+        // Set if record is created
+        private Long id;
+        // Set if record is rejected
+        private String error;
+    }
+}
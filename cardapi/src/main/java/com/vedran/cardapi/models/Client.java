@@ -7,7 +7,11 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Entity
-@Table(name = "client")
+@Table(name = "client", indexes = {
+        @Index(name = "idx_client_oib", columnList = "oib"),
+        @Index(name = "idx_client_status", columnList = "status"),
+        @Index(name = "idx_client_last_first_name", columnList = "lastName, firstName")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -15,7 +19,9 @@ import lombok.NoArgsConstructor;
 public class Client {
     // ID should not be sent in requests, it is automatically created from here
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Sequence with pooled optimizer (50 ids per round trip), IDENTITY would disable insert batching
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "client_seq")
+    @SequenceGenerator(name = "client_seq", sequenceName = "client_seq", allocationSize = 50)
     private Long id;
     @Column
     private Long oib;
@@ -25,11 +31,16 @@ public class Client {
     private String lastName;
     @Column
     private Status status;
+    // Optimistic locking, optional in requests (PUT/PATCH are rejected if it does not match)
+    @Version
+    private Long version;
 
+    // Stored as ordinal (also in process journal), new values go at the end
     public enum Status {
         REQUESTED,
         STARTED,
-        INACTIVE
+        INACTIVE,
+        PRODUCED // Card is made, final state
     }
 
 }
@@ -0,0 +1,32 @@
+package com.vedran.cardapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One event of GET /clients/changes: a Client request as it is after the change
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClientChange {
+    // Position in feed, grows by 1 per event
+    private long offset;
+    private Type type;
+    // Null only for ALL_STOPPED
+    private Long id;
+    private Long oib;
+    private Client.Status status;
+    private Long version;
+    // Epoch millis
+    private long time;
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,     // status is the one before delete
+        STARTED,
+        STOPPED,
+        PRODUCED,
+        ALL_STOPPED  // killProcess, every STARTED request is INACTIVE now
+    }
+}
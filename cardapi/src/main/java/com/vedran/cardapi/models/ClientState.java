@@ -0,0 +1,15 @@
+package com.vedran.cardapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Row of ClientRepo.findStatesByIds and findStatesByStatus: what reconcile compares, without names and version
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClientState {
+    private Long id;
+    private Long oib;
+    private Client.Status status;
+}
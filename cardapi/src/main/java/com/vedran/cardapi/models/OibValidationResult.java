@@ -0,0 +1,27 @@
+package com.vedran.cardapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Response of POST /oib/validate: totals and only the invalid OIBs, an upload is mostly valid
+@Data
+@NoArgsConstructor
+public class OibValidationResult {
+    private int received;
+    private int valid;
+    private int invalid;
+    private List<Record> invalids = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Record {
+        // Position of OIB in request, starting at 0
+        private int index;
+        private long oib;
+    }
+}
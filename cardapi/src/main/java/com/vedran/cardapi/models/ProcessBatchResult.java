@@ -0,0 +1,39 @@
+package com.vedran.cardapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Response of batch start/stop process endpoints: totals and one result per received id
+@Data
+@NoArgsConstructor
+public class ProcessBatchResult {
+    private int received;
+    private int changed;
+    private List<Record> results = new ArrayList<>();
+
+    public enum Outcome {
+        STARTED,
+        STOPPED,
+        ALREADY_STARTED,
+        NOT_STARTED,      // stop of request that has no running process
+        CONFLICT,         // other request of same OIB is started
+        PRODUCED,         // card is already made, can not be started again
+        NOT_FOUND,
+        CONCURRENT_CHANGE, // changed by another request meanwhile, try again
+        NODE_UNAVAILABLE   // node owning the OIB did not answer (cluster), try again
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Record {
+        private Long id;
+        private Outcome outcome;
+        // Client request as it is after this call, null if not found
+        private Client client;
+    }
+}
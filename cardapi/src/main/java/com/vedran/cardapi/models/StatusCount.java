@@ -0,0 +1,14 @@
+package com.vedran.cardapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Row of ClientRepo.countByStatus
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatusCount {
+    private Client.Status status;
+    private long count;
+}
@@ -0,0 +1,222 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+// Runs writes of another ProcessStore on background lanes, so requests do not wait for disk.
+// Each OIB always goes to the same lane, so its writes keep their order.
+// Queues are bounded: when a lane is full the caller waits (back pressure).
+// Not durable: callers get the entry before the delegate wrote it. Writes still in a queue are lost
+// on crash and failed writes are only logged and counted, startup state is whatever reached the
+// delegate (ProcessReconciler brings it in line with DB). Off unless cardapi.process.async.lanes > 0.
+@Slf4j
+public class AsyncProcessStore implements ProcessStore {
+
+    private final ProcessStore delegate;
+    private final Lane[] lanes;
+    private final Timer writeTimer;
+    private final Counter failedWrites;
+
+    // What delegate has written so far, only changed from lane threads
+    private final Map<Long, ProcessEntry> written = new ConcurrentHashMap<>();
+
+    public AsyncProcessStore(ProcessStore delegate, int laneCount, int queueSize, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane("process-writer-" + i, queueSize);
+        }
+        this.writeTimer = Timer.builder("cardapi.process.async.write")
+                .description("Process store write done by background lane")
+                .tag("store", delegate.getClass().getSimpleName())
+                .register(meterRegistry);
+        this.failedWrites = Counter.builder("cardapi.process.async.failed")
+                .description("Process writes of background lanes that failed, fixed by reconcile at next startup")
+                .tag("store", delegate.getClass().getSimpleName())
+                .register(meterRegistry);
+        Gauge.builder("cardapi.process.async.queued", this, AsyncProcessStore::queued)
+                .description("Process writes waiting in lanes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Map<Long, ProcessEntry> load() {
+        return load(oib -> true);
+    }
+
+    // Call flush first when loading again, queued writes would be applied to the new state
+    @Override
+    public Map<Long, ProcessEntry> load(LongPredicate owns) {
+        Map<Long, ProcessEntry> loaded = delegate.load(owns);
+        written.clear();
+        written.putAll(loaded);
+        for (Lane lane : lanes) {
+            lane.start();
+        }
+        return new HashMap<>(loaded);
+    }
+
+    // Returns entry with data as it will be written, the write itself happens later
+    @Override
+    public ProcessEntry start(Client thisClient, ProcessEntry previous) {
+        // Request can change the Client after this returns
+        Client snapshot = new Client(thisClient.getId(), thisClient.getOib(), thisClient.getFirstName(),
+                thisClient.getLastName(), thisClient.getStatus(), thisClient.getVersion());
+        Long oib = snapshot.getOib();
+        lane(oib).submit(() -> {
+            ProcessEntry entry = delegate.start(snapshot, written.get(oib));
+            if (entry != null) {
+                written.put(oib, entry);
+            } else {
+                written.remove(oib);
+            }
+        });
+        String[] data = {String.valueOf(snapshot.getId()), String.valueOf(oib), snapshot.getFirstName(),
+                snapshot.getLastName(), String.valueOf(snapshot.getStatus())};
+        return new ProcessEntry(oib, snapshot.getId(), null, data);
+    }
+
+    @Override
+    public void stop(ProcessEntry entry) {
+        Long oib = entry.getOib();
+        lane(oib).submit(() -> {
+            ProcessEntry current = written.remove(oib);
+            if (current != null) delegate.stop(current);
+        });
+    }
+
+    @Override
+    public void quarantine(ProcessEntry entry, String reason) {
+        Long oib = entry.getOib();
+        lane(oib).submit(() -> {
+            ProcessEntry current = written.remove(oib);
+            if (current != null) delegate.quarantine(current, reason);
+        });
+    }
+
+    // Waits for all lanes, then delegate stops everything in one call
+    @Override
+    public void stopAll(Collection<ProcessEntry> entries) {
+        flush();
+        List<ProcessEntry> stopped = new ArrayList<>(written.values());
+        written.clear();
+        delegate.stopAll(stopped);
+    }
+
+    @Override
+    public void flush() {
+        CountDownLatch drained = new CountDownLatch(lanes.length);
+        for (Lane lane : lanes) {
+            lane.submit(drained::countDown);
+        }
+        try {
+            drained.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.flush();
+    }
+
+    @Override
+    public File folder() {
+        return delegate.folder();
+    }
+
+    // Writes everything already queued, then stops lanes
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.submit(lane::stop);
+        }
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Lane lane(Long oib) {
+        int hash = Long.hashCode(oib);
+        return lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)];
+    }
+
+    private double queued() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    private class Lane implements Runnable {
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Lane(String name, int queueSize) {
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        // Only the first load starts the thread
+        void start() {
+            if (thread.getState() == Thread.State.NEW) thread.start();
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        // Write must not be dropped or run out of order, so interrupt is kept for later
+        void submit(Runnable write) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(write);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Runnable write;
+                try {
+                    write = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    writeTimer.record(write);
+                } catch (Exception e) {
+                    failedWrites.increment();
+                    log.error("Process write failed lane={}", thread.getName(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+
+// One text file per started process: StartedCardMakingProcesses/oib--yyyy-MM-dd--HH-mm-ss.txt
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cardapi.process.store", havingValue = "file", matchIfMissing = true)
+public class FileProcessStore implements ProcessStore {
+
+    public static final String fileDataDelimiter = ":";
+    public static final String fileNameDelimiter = "--";
+
+    // DateTimeFormatter is thread safe, SimpleDateFormat is not
+    private static final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd--HH-mm-ss");
+
+    private final String pathOfFolder;
+    private final File dirOfStartedCardMakingProcesses;
+    private final File quarantineDir;
+    private final int loadParallelism;
+
+    public FileProcessStore(String pathOfFolder) {
+        this(pathOfFolder, 0);
+    }
+
+    // loadParallelism 0 uses all cores
+    @Autowired
+    public FileProcessStore(@Value("${cardapi.process.folder:StartedCardMakingProcesses}") String pathOfFolder,
+                            @Value("${cardapi.process.load-parallelism:0}") int loadParallelism) {
+        this.pathOfFolder = pathOfFolder;
+        this.dirOfStartedCardMakingProcesses = new File(pathOfFolder);
+        this.quarantineDir = new File(pathOfFolder + ".quarantine");
+        this.loadParallelism = loadParallelism > 0 ? loadParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public Map<Long, ProcessEntry> load() {
+        return load(oib -> true);
+    }
+
+    // Files are read in parallel (fork-join), with many small files most of the time is open/read.
+    // Files of OIBs not owned are skipped by name, without reading them.
+    @Override
+    public Map<Long, ProcessEntry> load(LongPredicate owns) {
+        if (!dirOfStartedCardMakingProcesses.exists()) {
+            return new HashMap<>(); // Nothing started yet
+        }
+        File[] directoryListing = dirOfStartedCardMakingProcesses.listFiles();
+        if (directoryListing == null) {
+            log.warn("Process folder can not be read folder={}", pathOfFolder);
+            return new HashMap<>();
+        }
+        ForkJoinPool pool = new ForkJoinPool(loadParallelism);
+        try {
+            return pool.submit(() -> Arrays.stream(directoryListing).parallel()
+                    .filter(child -> {
+                        Long oib = parseOib(child.getName());
+                        return oib != null && owns.test(oib);
+                    })
+                    .map(FileProcessStore::readEntry)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toConcurrentMap(ProcessEntry::getOib, entry -> entry, FileProcessStore::newer)))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Loading of process folder interrupted: " + pathOfFolder, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cant load process folder: " + pathOfFolder, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Moved to <folder>.quarantine, kept there for manual check
+    @Override
+    public void quarantine(ProcessEntry entry, String reason) {
+        try {
+            quarantineDir.mkdirs();
+            Files.move(entry.getFile().toPath(), new File(quarantineDir, entry.getFile().getName()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            log.warn("Process file quarantined oib={} file={} reason={}", entry.getOib(), entry.getFile().getName(), reason);
+        } catch (IOException e) {
+            log.error("Cant quarantine process file file={}", entry.getFile().getName(), e);
+        }
+    }
+
+    // Same OIB twice, keep the newest one (names end with timestamp)
+    private static ProcessEntry newer(ProcessEntry a, ProcessEntry b) {
+        ProcessEntry newer = a.getFile().getName().compareTo(b.getFile().getName()) >= 0 ? a : b;
+        ProcessEntry older = newer == a ? b : a;
+        older.getFile().delete();
+        log.warn("Duplicate process file deleted oib={} file={}", older.getOib(), older.getFile().getName());
+        return newer;
+    }
+
+    @Override
+    public ProcessEntry start(Client thisClient, ProcessEntry previous) {
+        if (!dirOfStartedCardMakingProcesses.exists()) {
+            dirOfStartedCardMakingProcesses.mkdirs();
+        }
+
+        //Cleanup first:
+        if (previous != null) stop(previous);
+
+        String fileName = thisClient.getOib() + fileNameDelimiter + timeFormat.format(LocalDateTime.now()) + ".txt";
+
+        String dataToSave = thisClient.getId() + fileDataDelimiter
+                + thisClient.getOib() + fileDataDelimiter
+                + thisClient.getFirstName() + fileDataDelimiter
+                + thisClient.getLastName() + fileDataDelimiter
+                + thisClient.getStatus();
+
+        // Create a file:
+        try {
+            File myObj = new File(dirOfStartedCardMakingProcesses, fileName);
+            if (myObj.createNewFile()) {
+                FileWriter myWriter = new FileWriter(myObj);
+                myWriter.write(dataToSave);
+                myWriter.close();
+                log.debug("Process file created oib={} requestId={} file={}", thisClient.getOib(), thisClient.getId(), myObj.getName());
+                return new ProcessEntry(thisClient.getOib(), thisClient.getId(), myObj, dataToSave.split(fileDataDelimiter));
+            } else {
+                // This should not happen:
+                log.error("Process file already exists file={}", fileName);
+            }
+        } catch (Exception e) {
+            log.error("Cant create process file folder={} file={}", dirOfStartedCardMakingProcesses.getName(), fileName, e);
+        }
+        return null;
+    }
+
+    @Override
+    public void stop(ProcessEntry entry) {
+        if (entry.getFile().delete()) {
+            log.debug("Process file deleted oib={} file={}", entry.getOib(), entry.getFile().getName());
+        } else {
+            log.warn("Process file not deleted oib={} file={}", entry.getOib(), entry.getFile().getName());
+        }
+    }
+
+    @Override
+    public File folder() {
+        return dirOfStartedCardMakingProcesses;
+    }
+
+    // File name is: oib--yyyy-MM-dd--HH-mm-ss.txt
+    static Long parseOib(String fileName) {
+        int end = fileName.indexOf(fileNameDelimiter);
+        if (end <= 0) return null;
+        try {
+            return Long.parseLong(fileName.substring(0, end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Null if this is not a process file, entry without data if file is corrupted
+    private static ProcessEntry readEntry(File child) {
+        Long oib = parseOib(child.getName());
+        if (oib == null) return null;
+        String[] splitData = null;
+        try {
+            // Last line with data counts
+            String[] lines = Files.readString(child.toPath()).split("\\R");
+            for (int i = lines.length - 1; i >= 0 && splitData == null; i--) {
+                if (lines[i].contains(fileDataDelimiter)) splitData = lines[i].split(fileDataDelimiter);
+            }
+        } catch (Exception e) {
+            log.error("Process file corrupted file={}", child.getName(), e);
+        }
+        Long requestId = null;
+        if (splitData != null && splitData.length > 0) {
+            try {
+                requestId = Long.parseLong(splitData[0]);
+            } catch (NumberFormatException e) {
+                // Corrupted, requestId stays null
+            }
+        }
+        return new ProcessEntry(oib, requestId, child, splitData);
+    }
+}
@@ -0,0 +1,519 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Append-only journal of START/UPDATE/STOP records, split into segment files.
+// State is rebuilt on startup by replaying all segments in order.
+// Record layout (big endian):
+//   int recordLength, byte type, byte status, short firstNameLength, short lastNameLength,
+//   long timestamp, long oib, long requestId, firstName bytes, lastName bytes, int crc32
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cardapi.process.store", havingValue = "journal")
+public class JournalProcessStore implements ProcessStore {
+
+    public enum FsyncPolicy {
+        GROUP,  // writers wait for a shared fsync done by the flusher thread
+        ALWAYS, // fsync after every record
+        NONE    // leave it to the OS, fsync only on segment roll and shutdown
+    }
+
+    static final byte START = 1;
+    static final byte UPDATE = 2;
+    static final byte STOP = 3;
+    static final byte SNAPSHOT = 4; // Everything before this record is replaced by what follows
+    static final int HEADER_SIZE = 4 + 1 + 1 + 2 + 2 + 8 + 8 + 8;
+    static final int CRC_SIZE = 4;
+
+    private static final String segmentPrefix = "segment-";
+    private static final String segmentSuffix = ".log";
+
+    private final File journalDir;
+    private final File legacyDir;
+    private final long segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final boolean migrateLegacy;
+    private final long compactionMinRecords;
+
+    // Live state with fields as they are in the journal, needed for compaction
+    private final Map<Long, Stored> live = new ConcurrentHashMap<>();
+
+    // Entry data has "null" for a null name, compaction writes the name itself
+    private record Stored(ProcessEntry entry, byte status, String firstName, String lastName) {
+    }
+
+    private final Object writeLock = new Object();
+    private final Object syncMonitor = new Object();
+    private final List<File> oldSegments = new ArrayList<>();
+    private FileChannel active;
+    private File activeFile;
+    private long activeSegmentNo;
+    private long activeSize;
+    private long recordsInJournal;
+    private volatile long appendedBytes;
+    private long durableBytes;
+    private volatile boolean running;
+    private Thread flusher;
+
+    public JournalProcessStore(
+            @Value("${cardapi.process.journal.folder:StartedCardMakingProcesses.journal}") String journalFolder,
+            @Value("${cardapi.process.folder:StartedCardMakingProcesses}") String legacyFolder,
+            @Value("${cardapi.process.journal.segment-size:67108864}") long segmentSize,
+            @Value("${cardapi.process.journal.fsync:GROUP}") FsyncPolicy fsyncPolicy,
+            @Value("${cardapi.process.journal.migrate-legacy:true}") boolean migrateLegacy,
+            @Value("${cardapi.process.journal.compaction-min-records:1000}") long compactionMinRecords) {
+        this.journalDir = new File(journalFolder);
+        this.legacyDir = new File(legacyFolder);
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.migrateLegacy = migrateLegacy;
+        this.compactionMinRecords = compactionMinRecords;
+    }
+
+    @Override
+    public Map<Long, ProcessEntry> load() {
+        try {
+            journalDir.mkdirs();
+            List<File> segmentFiles = listSegments();
+            for (int i = 0; i < segmentFiles.size(); i++) {
+                replay(segmentFiles.get(i), i == segmentFiles.size() - 1);
+            }
+            if (segmentFiles.isEmpty()) {
+                activeSegmentNo = 1;
+            } else {
+                activeSegmentNo = segmentNo(segmentFiles.get(segmentFiles.size() - 1));
+                oldSegments.addAll(segmentFiles.subList(0, segmentFiles.size() - 1));
+            }
+            openActive(segmentFile(activeSegmentNo));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cant open process journal: " + journalDir.getPath(), e);
+        }
+
+        running = true;
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            flusher = new Thread(this::flushLoop, "process-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+
+        if (migrateLegacy) {
+            int migrated = LegacyProcessMigrator.migrate(legacyDir, this);
+            if (migrated > 0) log.info("Migrated process files into journal count={}", migrated);
+        }
+        return entries();
+    }
+
+    @Override
+    public ProcessEntry start(Client thisClient, ProcessEntry previous) {
+        try {
+            return append(startType(thisClient, previous), thisClient.getOib(), thisClient.getId(),
+                    status(thisClient), thisClient.getFirstName(), thisClient.getLastName());
+        } catch (Exception e) {
+            log.error("Cant write process to journal oib={}", thisClient.getOib(), e);
+            return null;
+        }
+    }
+
+    // All records in one go under the write lock, one fsync wait for the whole batch
+    @Override
+    public List<ProcessEntry> startAll(List<Client> clients, List<ProcessEntry> previous) {
+        List<ProcessEntry> entries = new ArrayList<>(clients.size());
+        long position;
+        synchronized (writeLock) {
+            for (int i = 0; i < clients.size(); i++) {
+                Client thisClient = clients.get(i);
+                try {
+                    entries.add(appendLocked(startType(thisClient, previous.get(i)), thisClient.getOib(),
+                            thisClient.getId(), status(thisClient), thisClient.getFirstName(), thisClient.getLastName()));
+                } catch (Exception e) {
+                    log.error("Cant write process to journal oib={}", thisClient.getOib(), e);
+                    entries.add(null);
+                }
+            }
+            position = appendedBytes;
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP) awaitDurable(position);
+        return entries;
+    }
+
+    private static byte startType(Client thisClient, ProcessEntry previous) {
+        return previous != null && thisClient.getId() != null && thisClient.getId().equals(previous.getRequestId())
+                ? UPDATE : START;
+    }
+
+    private static byte status(Client thisClient) {
+        return thisClient.getStatus() == null ? -1 : (byte) thisClient.getStatus().ordinal();
+    }
+
+    @Override
+    public File folder() {
+        return journalDir;
+    }
+
+    @Override
+    public void stop(ProcessEntry entry) {
+        try {
+            append(STOP, entry.getOib(), null, (byte) -1, null, null);
+        } catch (Exception e) {
+            log.error("Cant write process stop to journal oib={}", entry.getOib(), e);
+        }
+    }
+
+    // Empty snapshot record clears everything, one record instead of one STOP per process
+    @Override
+    public void stopAll(Collection<ProcessEntry> entries) {
+        try {
+            append(SNAPSHOT, 0, null, (byte) -1, null, null);
+        } catch (Exception e) {
+            log.error("Cant write stop of all processes to journal", e);
+        }
+    }
+
+    // Used by LegacyProcessMigrator
+    boolean contains(long oib) {
+        return live.containsKey(oib);
+    }
+
+    // Used by LegacyProcessMigrator, does not overwrite processes already in journal. False if not imported.
+    boolean importEntry(ProcessEntry legacy) throws IOException {
+        String[] data = legacy.getData();
+        if (live.containsKey(legacy.getOib()) || legacy.getRequestId() == null || data == null || data.length < 5) {
+            return false;
+        }
+        byte status = -1;
+        try {
+            status = (byte) Client.Status.valueOf(data[4]).ordinal();
+        } catch (IllegalArgumentException e) {
+            // Unknown status, stored as null
+        }
+        // FileProcessStore writes a null name as "null"
+        append(START, legacy.getOib(), legacy.getRequestId(), status, nameOf(data[2]), nameOf(data[3]));
+        return true;
+    }
+
+    // Forces everything appended so far to disk, regardless of fsync policy
+    void sync() throws IOException {
+        synchronized (writeLock) {
+            active.force(false);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cardapi.process.journal.compaction-ms:60000}")
+    public void compact() throws IOException {
+        synchronized (writeLock) {
+            if (!running || recordsInJournal <= live.size() * 2L + compactionMinRecords) return;
+
+            // Write all live processes into next segment, then drop everything older
+            long snapshotNo = activeSegmentNo + 1;
+            File tmp = new File(journalDir, segmentName(snapshotNo) + ".tmp");
+            long written = 0;
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                written += writeFully(out, encode(SNAPSHOT, 0, null, (byte) -1, null, null));
+                for (Stored stored : live.values()) {
+                    written += writeFully(out, encode(START, stored.entry().getOib(), stored.entry().getRequestId(),
+                            stored.status(), stored.firstName(), stored.lastName()));
+                }
+                out.force(true);
+            }
+            File snapshot = segmentFile(snapshotNo);
+            Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            active.close();
+            oldSegments.add(activeFile);
+            for (File old : oldSegments) {
+                old.delete();
+            }
+            oldSegments.clear();
+            activeSegmentNo = snapshotNo;
+            openActive(snapshot);
+            recordsInJournal = live.size() + 1;
+            appendedBytes += written;
+            synchronized (syncMonitor) {
+                // Older records are gone and snapshot is already on disk
+                durableBytes = appendedBytes;
+                syncMonitor.notifyAll();
+            }
+            log.info("Process journal compacted processes={} segment={}", live.size(), snapshot.getName());
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (!running) return;
+            running = false;
+            active.force(true);
+            active.close();
+        }
+        synchronized (syncMonitor) {
+            syncMonitor.notifyAll();
+        }
+    }
+
+    private ProcessEntry append(byte type, long oib, Long requestId, byte status,
+                                String firstName, String lastName) throws IOException {
+        ProcessEntry entry;
+        long position;
+        synchronized (writeLock) {
+            entry = appendLocked(type, oib, requestId, status, firstName, lastName);
+            position = appendedBytes;
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP) awaitDurable(position);
+        return entry;
+    }
+
+    // Caller holds writeLock and waits for fsync (GROUP) itself
+    private ProcessEntry appendLocked(byte type, long oib, Long requestId, byte status,
+                                      String firstName, String lastName) throws IOException {
+        ByteBuffer record = encode(type, oib, requestId, status, firstName, lastName);
+        ProcessEntry entry = null;
+        if (!running) throw new IOException("Process journal is closed");
+        if (activeSize > 0 && activeSize + record.remaining() > segmentSize) roll();
+        int length = writeFully(active, record);
+        activeSize += length;
+        recordsInJournal++;
+        appendedBytes += length;
+        if (type == STOP) {
+            live.remove(oib);
+        } else if (type == SNAPSHOT) {
+            live.clear();
+        } else {
+            entry = toEntry(oib, requestId, status, firstName, lastName);
+            live.put(oib, new Stored(entry, status, firstName, lastName));
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) active.force(false);
+        return entry;
+    }
+
+    private void awaitDurable(long position) {
+        synchronized (syncMonitor) {
+            syncMonitor.notifyAll(); // Wake up flusher
+            while (running && durableBytes < position) {
+                try {
+                    syncMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // One fsync covers every record appended while the previous one was running
+    private void flushLoop() {
+        while (running) {
+            synchronized (syncMonitor) {
+                while (running && durableBytes >= appendedBytes) {
+                    try {
+                        syncMonitor.wait(100);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            long target;
+            FileChannel channel;
+            synchronized (writeLock) {
+                target = appendedBytes;
+                channel = active;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Segment was rolled or compacted, it was forced before closing
+            } catch (IOException e) {
+                log.error("Process journal fsync failed", e);
+            }
+            synchronized (syncMonitor) {
+                if (target > durableBytes) durableBytes = target;
+                syncMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NONE) active.force(false);
+        active.close();
+        oldSegments.add(activeFile);
+        activeSegmentNo++;
+        openActive(segmentFile(activeSegmentNo));
+    }
+
+    private void openActive(File file) throws IOException {
+        activeFile = file;
+        active = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSize = active.size();
+        active.position(activeSize);
+    }
+
+    private void replay(File segment, boolean last) throws IOException {
+        long validSize = 0;
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > 0) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                while (buffer.remaining() >= HEADER_SIZE + CRC_SIZE) {
+                    int start = buffer.position();
+                    int length = buffer.getInt(start);
+                    if (length < HEADER_SIZE + CRC_SIZE || length > buffer.remaining()) break;
+                    CRC32 crc = new CRC32();
+                    ByteBuffer body = buffer.duplicate();
+                    body.position(start).limit(start + length - CRC_SIZE);
+                    crc.update(body);
+                    if ((int) crc.getValue() != buffer.getInt(start + length - CRC_SIZE)) break;
+                    applyRecord(buffer, start);
+                    buffer.position(start + length);
+                    recordsInJournal++;
+                }
+                validSize = buffer.position();
+            }
+            if (validSize < size) {
+                log.warn("Process journal has torn or corrupted tail segment={} validBytes={} size={}",
+                        segment.getName(), validSize, size);
+            }
+        }
+        if (last) {
+            // Drop torn tail so new records are appended right after the last valid one
+            try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+                if (channel.size() > validSize) channel.truncate(validSize);
+            }
+        }
+    }
+
+    private void applyRecord(ByteBuffer buffer, int start) {
+        byte type = buffer.get(start + 4);
+        byte status = buffer.get(start + 5);
+        short firstNameLength = buffer.getShort(start + 6);
+        short lastNameLength = buffer.getShort(start + 8);
+        long oib = buffer.getLong(start + 18);
+        long requestId = buffer.getLong(start + 26);
+        int offset = start + HEADER_SIZE;
+        String firstName = readString(buffer, offset, firstNameLength);
+        offset += Math.max(firstNameLength, 0);
+        String lastName = readString(buffer, offset, lastNameLength);
+        switch (type) {
+            case START, UPDATE -> live.put(oib, new Stored(
+                    toEntry(oib, requestId < 0 ? null : requestId, status, firstName, lastName), status, firstName, lastName));
+            case STOP -> live.remove(oib);
+            case SNAPSHOT -> live.clear();
+            default -> log.warn("Unknown process journal record type={}", type);
+        }
+    }
+
+    private Map<Long, ProcessEntry> entries() {
+        Map<Long, ProcessEntry> entries = new HashMap<>();
+        live.forEach((oib, stored) -> entries.put(oib, stored.entry()));
+        return entries;
+    }
+
+    private static String nameOf(String data) {
+        return "null".equals(data) ? null : data;
+    }
+
+    static ByteBuffer encode(byte type, long oib, Long requestId, byte status, String firstName, String lastName) {
+        byte[] first = firstName == null ? null : firstName.getBytes(StandardCharsets.UTF_8);
+        byte[] last = lastName == null ? null : lastName.getBytes(StandardCharsets.UTF_8);
+        int firstLength = first == null ? 0 : first.length;
+        int lastLength = last == null ? 0 : last.length;
+        if (firstLength > Short.MAX_VALUE || lastLength > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Name too long for process journal");
+        }
+        int length = HEADER_SIZE + firstLength + lastLength + CRC_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length);
+        buffer.put(type);
+        buffer.put(status);
+        buffer.putShort(first == null ? -1 : (short) firstLength);
+        buffer.putShort(last == null ? -1 : (short) lastLength);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(oib);
+        buffer.putLong(requestId == null ? -1 : requestId);
+        if (first != null) buffer.put(first);
+        if (last != null) buffer.put(last);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length - CRC_SIZE);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readString(ByteBuffer buffer, int offset, short length) {
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Same data layout as FileProcessStore: id:oib:firstName:lastName:status
+    private static ProcessEntry toEntry(long oib, Long requestId, byte status, String firstName, String lastName) {
+        Client.Status[] statuses = Client.Status.values();
+        String statusName = status >= 0 && status < statuses.length ? statuses[status].name() : "null";
+        String[] data = {String.valueOf(requestId), String.valueOf(oib), String.valueOf(firstName),
+                String.valueOf(lastName), statusName};
+        return new ProcessEntry(oib, requestId, null, data);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return length;
+    }
+
+    private List<File> listSegments() {
+        List<File> segmentFiles = new ArrayList<>();
+        File[] files = journalDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (segmentNo(file) > 0) segmentFiles.add(file);
+            }
+        }
+        segmentFiles.sort((a, b) -> Long.compare(segmentNo(a), segmentNo(b)));
+        return segmentFiles;
+    }
+
+    private File segmentFile(long no) {
+        return new File(journalDir, segmentName(no));
+    }
+
+    private static String segmentName(long no) {
+        return segmentPrefix + String.format("%010d", no) + segmentSuffix;
+    }
+
+    // Returns -1 if this is not a segment file
+    private static long segmentNo(File file) {
+        String name = file.getName();
+        if (!name.startsWith(segmentPrefix) || !name.endsWith(segmentSuffix)) return -1;
+        try {
+            return Long.parseLong(name.substring(segmentPrefix.length(), name.length() - segmentSuffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
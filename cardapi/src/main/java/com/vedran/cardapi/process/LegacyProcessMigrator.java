@@ -0,0 +1,55 @@
+package com.vedran.cardapi.process;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.Map;
+
+// One-shot import of the old one-file-per-OIB folder into JournalProcessStore.
+// After import the old folder is renamed to <folder>.migrated, so this runs only once.
+// If any file is not imported the folder stays, next startup tries again (imported OIBs are skipped).
+@Slf4j
+class LegacyProcessMigrator {
+
+    private LegacyProcessMigrator() {
+    }
+
+    static int migrate(File legacyDir, JournalProcessStore journal) {
+        if (!legacyDir.isDirectory()) return 0;
+        Map<Long, ProcessEntry> legacy = new FileProcessStore(legacyDir.getPath()).load();
+        if (legacy.isEmpty()) return 0;
+
+        int migrated = 0;
+        int failed = 0;
+        try {
+            for (ProcessEntry entry : legacy.values()) {
+                // Imported by an earlier run, or started again since: journal has the newer state
+                if (journal.contains(entry.getOib())) continue;
+                if (journal.importEntry(entry)) {
+                    migrated++;
+                } else {
+                    failed++;
+                    log.warn("Process file not migrated file={}", entry.getFile().getName());
+                }
+            }
+            journal.sync();
+        } catch (Exception e) {
+            // Leave old folder in place, next startup will try again
+            log.error("Migration of process folder failed folder={}", legacyDir.getName(), e);
+            return migrated;
+        }
+        if (failed > 0) {
+            log.error("Process folder not fully migrated, it stays in place folder={} failed={}", legacyDir.getName(), failed);
+            return migrated;
+        }
+
+        File migratedDir = new File(legacyDir.getPath() + ".migrated");
+        if (migratedDir.exists()) {
+            migratedDir = new File(legacyDir.getPath() + ".migrated-" + System.currentTimeMillis());
+        }
+        if (!legacyDir.renameTo(migratedDir)) {
+            log.error("Cant rename process folder after migration folder={}", legacyDir.getName());
+        }
+        return migrated;
+    }
+}
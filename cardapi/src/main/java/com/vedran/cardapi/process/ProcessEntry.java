@@ -0,0 +1,19 @@
+package com.vedran.cardapi.process;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+
+// One started card making process, as kept in ProcessRegistry.
+@Getter
+@AllArgsConstructor
+public class ProcessEntry {
+    private final Long oib;
+    // Null if process data is corrupted
+    private final Long requestId;
+    // Only set by FileProcessStore
+    private final File file;
+    // Split process data: id:oib:firstName:lastName:status (null if corrupted)
+    private final String[] data;
+}
@@ -0,0 +1,76 @@
+package com.vedran.cardapi.process;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Striped per-OIB locks around process state changes (REQUESTED -> STARTED -> INACTIVE).
+// Requests for the same OIB run one after another, different OIBs almost always in parallel.
+@Component
+public class ProcessLocks {
+
+    private final ReentrantLock[] stripes;
+
+    public ProcessLocks(@Value("${cardapi.process.lock-stripes:1024}") int stripeCount) {
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public Held lock(Long... oibs) {
+        return lock(Arrays.asList(oibs));
+    }
+
+    // Stripes are always taken in ascending order, so two callers can not deadlock. Null OIBs are skipped.
+    public Held lock(Collection<Long> oibs) {
+        int[] held = oibs.stream()
+                .filter(oib -> oib != null)
+                .mapToInt(this::stripe)
+                .distinct()
+                .sorted()
+                .toArray();
+        for (int i : held) {
+            stripes[i].lock();
+        }
+        return new Held(held);
+    }
+
+    // Every stripe, for operations on all processes (kill all, startup reconcile)
+    public Held lockAll() {
+        int[] held = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].lock();
+            held[i] = i;
+        }
+        return new Held(held);
+    }
+
+    int stripe(Long oib) {
+        int hash = Long.hashCode(oib);
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    public class Held implements AutoCloseable {
+        private final int[] held;
+
+        private Held(int[] held) {
+            this.held = held;
+        }
+
+        // True if changes for this OIB are protected by this lock
+        public boolean covers(Long oib) {
+            return oib != null && Arrays.binarySearch(held, stripe(oib)) >= 0;
+        }
+
+        @Override
+        public void close() {
+            for (int i = held.length - 1; i >= 0; i--) {
+                stripes[held[i]].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.ClientState;
+import com.vedran.cardapi.repo.ClientRepo;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Runs once at startup, before requests are served: makes processes and Client.status agree again.
+//  - corrupted process (no request id or data) -> quarantined
+//  - process of request missing in DB or under other OIB (orphan) -> quarantined
+//  - process of PRODUCED request -> stopped
+//  - process STARTED/INACTIVE but request not -> request status corrected in bulk
+//  - request STARTED without process -> process written again, or INACTIVE if OIB has other process
+@Slf4j
+@Component
+public class ProcessReconciler {
+
+    static final String corrupted = "corrupted";
+    static final String orphan = "orphan";
+    // Chunk of ids is read as a key range if the range has at most this many ids per id of the chunk
+    static final int denseFactor = 4;
+
+    private final ProcessRegistry processRegistry;
+    private final ClientRepo clientRepo;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int chunkSize;
+
+    public ProcessReconciler(ProcessRegistry processRegistry, ClientRepo clientRepo, MeterRegistry meterRegistry,
+                             @Value("${cardapi.process.reconcile.enabled:true}") boolean enabled,
+                             @Value("${cardapi.process.reconcile.chunk-size:1000}") int chunkSize) {
+        this.processRegistry = processRegistry;
+        this.clientRepo = clientRepo;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+    }
+
+    @PostConstruct
+    public void reconcile() {
+        if (!enabled) return;
+        long start = System.nanoTime();
+        int processes = processRegistry.size();
+
+        List<ProcessEntry> valid = new ArrayList<>(processRegistry.size());
+        Map<Long, String> quarantine = new HashMap<>();
+        for (ProcessEntry entry : processRegistry.entries()) {
+            String[] data = entry.getData();
+            if (entry.getRequestId() == null || data == null || data.length < 5) {
+                quarantine.put(entry.getOib(), corrupted);
+            } else {
+                valid.add(entry);
+            }
+        }
+
+        // Requests of all processes, id, OIB and status only. Ids in order, one query per chunk: a key range
+        // when the chunk is dense (ids of a sequence mostly are), else an IN list of its ids.
+        long[] requestIds = valid.stream().mapToLong(ProcessEntry::getRequestId).sorted().distinct().toArray();
+        Map<Long, ClientState> clients = new HashMap<>(requestIds.length * 2);
+        for (int from = 0; from < requestIds.length; from += chunkSize) {
+            int to = Math.min(from + chunkSize, requestIds.length);
+            long first = requestIds[from];
+            long last = requestIds[to - 1];
+            List<ClientState> found = last - first < (long) (to - from) * denseFactor
+                    ? clientRepo.findStatesByIdRange(first, last)
+                    : clientRepo.findStatesByIds(Arrays.stream(requestIds, from, to).boxed().toList());
+            for (ClientState thisClient : found) {
+                clients.put(thisClient.getId(), thisClient);
+            }
+        }
+        long lookedUp = System.nanoTime();
+
+        List<Long> toStarted = new ArrayList<>();
+        List<Long> toInactive = new ArrayList<>();
+        List<Long> produced = new ArrayList<>();
+        for (ProcessEntry entry : valid) {
+            ClientState thisClient = clients.get(entry.getRequestId());
+            if (thisClient == null || !entry.getOib().equals(thisClient.getOib())) {
+                quarantine.put(entry.getOib(), orphan);
+            } else if (thisClient.getStatus() == Client.Status.PRODUCED) {
+                produced.add(entry.getOib());
+            } else if (Client.Status.STARTED.name().equals(entry.getData()[4])) {
+                if (thisClient.getStatus() != Client.Status.STARTED) toStarted.add(thisClient.getId());
+            } else if (thisClient.getStatus() == Client.Status.STARTED) {
+                toInactive.add(thisClient.getId());
+            }
+        }
+
+        // STARTED in DB but no process of their own, only one per OIB can get it
+        Map<Long, ClientState> restart = new HashMap<>();
+        for (ClientState thisClient : clientRepo.findStatesByStatus(Client.Status.STARTED)) {
+            // Process of other node's OIB, that node checks it
+            if (!processRegistry.owns(thisClient.getOib())) continue;
+            ProcessEntry entry = quarantine.containsKey(thisClient.getOib()) ? null : processRegistry.get(thisClient.getOib());
+            if (entry == null && restart.putIfAbsent(thisClient.getOib(), thisClient) == null) continue;
+            if (entry == null || !thisClient.getId().equals(entry.getRequestId())) {
+                toInactive.add(thisClient.getId());
+            }
+        }
+        long compared = System.nanoTime();
+
+        // Moving files is most of the work when many processes are orphans
+        quarantine.entrySet().parallelStream().forEach(q -> processRegistry.quarantine(q.getKey(), q.getValue()));
+        produced.forEach(processRegistry::stop);
+        updateStatuses(toStarted, Client.Status.STARTED);
+        updateStatuses(toInactive, Client.Status.INACTIVE);
+        // Process data has the names, only restarted requests are loaded whole
+        List<Long> restartIds = restart.values().stream().map(ClientState::getId).toList();
+        for (int from = 0; from < restartIds.size(); from += chunkSize) {
+            List<Client> chunk = new ArrayList<>();
+            clientRepo.findAllById(restartIds.subList(from, Math.min(from + chunkSize, restartIds.size()))).forEach(chunk::add);
+            processRegistry.startAll(chunk);
+        }
+        long done = System.nanoTime();
+
+        meterRegistry.timer("cardapi.process.reconcile").record(done - start, TimeUnit.NANOSECONDS);
+        log.info("Processes reconciled processes={} quarantined={} stopped={} toStarted={} toInactive={} restarted={}"
+                        + " lookupMs={} compareMs={} fixMs={} totalMs={}",
+                processes, quarantine.size(), produced.size(),
+                toStarted.size(), toInactive.size(), restart.size(),
+                millis(start, lookedUp), millis(lookedUp, compared), millis(compared, done), millis(start, done));
+    }
+
+    private void updateStatuses(List<Long> ids, Client.Status status) {
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            clientRepo.updateStatusByIdsInBulk(ids.subList(from, Math.min(from + chunkSize, ids.size())), status);
+        }
+    }
+
+    private static long millis(long from, long to) {
+        return TimeUnit.NANOSECONDS.toMillis(to - from);
+    }
+}
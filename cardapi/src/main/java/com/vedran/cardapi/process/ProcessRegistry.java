@@ -0,0 +1,247 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.cluster.ClusterMembership;
+import com.vedran.cardapi.models.Client;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+// Keeps all started card making processes in memory, keyed by OIB.
+// ProcessStore is read only once at startup, after that every change goes through here.
+// In a cluster only OIBs this node owns are kept, load runs again when owned OIBs change.
+@Slf4j
+@Component
+public class ProcessRegistry {
+
+    private final ProcessStore processStore;
+    private final LongPredicate owns;
+    private ProcessLocks processLocks;
+    private final ConcurrentHashMap<Long, ProcessEntry> processes = new ConcurrentHashMap<>();
+
+    private final Timer lookupTimer;
+    private final Timer loadTimer;
+    private final Timer startTimer;
+    private final Timer startAllTimer;
+    private final Timer stopTimer;
+    private final Timer stopAllTimer;
+
+    // asyncLanes > 0 moves store writes to AsyncProcessStore, 0 writes on request thread
+    @Autowired
+    public ProcessRegistry(ProcessStore processStore, MeterRegistry meterRegistry, ClusterMembership cluster,
+                           ProcessLocks processLocks,
+                           @Value("${cardapi.process.async.lanes:0}") int asyncLanes,
+                           @Value("${cardapi.process.async.queue-size:1024}") int asyncQueueSize) {
+        this(asyncLanes > 0 ? new AsyncProcessStore(processStore, asyncLanes, asyncQueueSize, meterRegistry) : processStore,
+                meterRegistry, cluster::owns);
+        // Journal is one append-only file per node, only process files can be shared by OIB
+        if (cluster.enabled() && !(processStore instanceof FileProcessStore)) {
+            throw new IllegalStateException("cardapi.cluster.nodes needs cardapi.process.store=file");
+        }
+        this.processLocks = processLocks;
+        cluster.addListener(this::rebalance);
+    }
+
+    public ProcessRegistry(ProcessStore processStore, MeterRegistry meterRegistry) {
+        this(processStore, meterRegistry, oib -> true);
+    }
+
+    public ProcessRegistry(ProcessStore processStore, MeterRegistry meterRegistry, LongPredicate owns) {
+        this.processStore = processStore;
+        this.owns = owns;
+        String store = processStore.getClass().getSimpleName();
+        this.lookupTimer = Timer.builder("cardapi.process.lookup")
+                .description("Lookup of started process by OIB")
+                .register(meterRegistry);
+        this.loadTimer = storeTimer(meterRegistry, store, "load");
+        this.startTimer = storeTimer(meterRegistry, store, "start");
+        this.startAllTimer = storeTimer(meterRegistry, store, "startAll");
+        this.stopTimer = storeTimer(meterRegistry, store, "stop");
+        this.stopAllTimer = storeTimer(meterRegistry, store, "stopAll");
+        Gauge.builder("cardapi.process.started", this, ProcessRegistry::countStarted)
+                .description("Processes with status STARTED")
+                .register(meterRegistry);
+        Gauge.builder("cardapi.process.storage.size", processStore, ProcessRegistry::storageBytes)
+                .description("Size of process store folder")
+                .baseUnit("bytes")
+                .tag("store", store)
+                .register(meterRegistry);
+        Gauge.builder("cardapi.process.storage.files", processStore, ProcessRegistry::storageFiles)
+                .description("Files in process store folder")
+                .tag("store", store)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void load() {
+        long start = System.nanoTime();
+        processes.clear();
+        processes.putAll(loadTimer.record(() -> processStore.load(owns)));
+        log.info("Processes loaded processes={} ms={}", processes.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Live nodes changed: takes OIBs this node got, drops OIBs it gave away.
+    // Holds every lock, requests wait and then see the new shard.
+    public void rebalance() {
+        try (ProcessLocks.Held held = processLocks.lockAll()) {
+            // Queued writes of OIBs given away must reach the folder before their new owner reads it
+            flush();
+            int before = processes.size();
+            load();
+            log.info("Processes rebalanced before={} after={}", before, processes.size());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (processStore instanceof AsyncProcessStore async) async.close();
+    }
+
+    // Waits until all process changes so far are written by the store
+    public void flush() {
+        processStore.flush();
+    }
+
+    // Returns null if there is no started process for this OIB
+    public ProcessEntry get(Long oib) {
+        if (oib == null) return null;
+        long start = System.nanoTime();
+        try {
+            return processes.get(oib);
+        } finally {
+            lookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // False for OIBs of other nodes in a cluster, their processes are not here
+    public boolean owns(Long oib) {
+        return oib != null && owns.test(oib);
+    }
+
+    public int size() {
+        return processes.size();
+    }
+
+    // Read-only view of all processes
+    public Collection<ProcessEntry> entries() {
+        return Collections.unmodifiableCollection(processes.values());
+    }
+
+    // True if this request holds the STARTED process of its OIB with its current data,
+    // start would only write the same process again
+    public boolean isStarted(Client thisClient) {
+        ProcessEntry entry = get(thisClient.getOib());
+        if (entry == null || !thisClient.getId().equals(entry.getRequestId())) return false;
+        String[] data = entry.getData();
+        return data != null && data.length > 4
+                && String.valueOf(thisClient.getOib()).equals(data[1])
+                && String.valueOf(thisClient.getFirstName()).equals(data[2])
+                && String.valueOf(thisClient.getLastName()).equals(data[3])
+                && Client.Status.STARTED.name().equals(data[4]);
+    }
+
+    public void start(Client thisClient) {
+        ProcessEntry previous = processes.get(thisClient.getOib());
+        ProcessEntry entry = startTimer.record(() -> processStore.start(thisClient, previous));
+        if (entry != null) {
+            processes.put(thisClient.getOib(), entry);
+        } else if (previous != null) {
+            // Old one is cleaned up by the store even if new one failed
+            processes.remove(thisClient.getOib());
+        }
+    }
+
+    // Same as start for each client in one store call, every client must have different OIB
+    public void startAll(List<Client> clients) {
+        if (clients.isEmpty()) return;
+        // Second process of an OIB would replace the first in the map, but both would stay in the store
+        if (clients.stream().map(Client::getOib).distinct().count() != clients.size()) {
+            throw new IllegalArgumentException("Clients of startAll must have different OIBs");
+        }
+        List<ProcessEntry> previous = new ArrayList<>(clients.size());
+        for (Client thisClient : clients) {
+            previous.add(processes.get(thisClient.getOib()));
+        }
+        List<ProcessEntry> entries = startAllTimer.record(() -> processStore.startAll(clients, previous));
+        for (int i = 0; i < clients.size(); i++) {
+            Long oib = clients.get(i).getOib();
+            if (entries.get(i) != null) {
+                processes.put(oib, entries.get(i));
+            } else if (previous.get(i) != null) {
+                processes.remove(oib);
+            }
+        }
+    }
+
+    // Removes process without stopping it, see ProcessStore.quarantine
+    public void quarantine(Long oib, String reason) {
+        ProcessEntry entry = processes.remove(oib);
+        if (entry != null) processStore.quarantine(entry, reason);
+    }
+
+    public void stop(Long oib) {
+        if (oib == null) return;
+        ProcessEntry entry = processes.remove(oib);
+        if (entry != null) {
+            stopTimer.record(() -> processStore.stop(entry));
+        }
+    }
+
+    // One pass over registry, store gets all stopped processes at once
+    public void stopAll() {
+        List<ProcessEntry> stopped = new ArrayList<>(processes.size());
+        for (Long oib : processes.keySet()) {
+            ProcessEntry entry = processes.remove(oib);
+            if (entry != null) stopped.add(entry);
+        }
+        stopAllTimer.record(() -> processStore.stopAll(stopped));
+    }
+
+    // Stopped requests can stay in registry with status INACTIVE (e.g. deleted request)
+    int countStarted() {
+        int started = 0;
+        for (ProcessEntry entry : processes.values()) {
+            String[] data = entry.getData();
+            if (data != null && data.length > 4 && Client.Status.STARTED.name().equals(data[4])) started++;
+        }
+        return started;
+    }
+
+    private static Timer storeTimer(MeterRegistry meterRegistry, String store, String operation) {
+        return Timer.builder("cardapi.process.store")
+                .description("Process store writes (file create/delete or journal append)")
+                .tag("store", store)
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    private static double storageBytes(ProcessStore processStore) {
+        File[] files = processStore.folder().listFiles();
+        if (files == null) return 0;
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        return bytes;
+    }
+
+    private static double storageFiles(ProcessStore processStore) {
+        File[] files = processStore.folder().listFiles();
+        return files == null ? 0 : files.length;
+    }
+}
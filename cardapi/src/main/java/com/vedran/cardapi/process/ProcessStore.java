@@ -0,0 +1,57 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+// Persistence behind ProcessRegistry. Selected with cardapi.process.store (file or journal).
+public interface ProcessStore {
+
+    // Called once at startup, returns all started processes keyed by OIB
+    Map<Long, ProcessEntry> load();
+
+    // Only processes of OIBs this node owns (cluster, shared folder). Called again when owned OIBs change.
+    default Map<Long, ProcessEntry> load(LongPredicate owns) {
+        Map<Long, ProcessEntry> loaded = load();
+        loaded.keySet().removeIf(oib -> !owns.test(oib));
+        return loaded;
+    }
+
+    // previous is the process being replaced for the same OIB (null if there is none)
+    ProcessEntry start(Client thisClient, ProcessEntry previous);
+
+    // Same as start for each client, previous.get(i) belongs to clients.get(i). Null entry if that one failed.
+    default List<ProcessEntry> startAll(List<Client> clients, List<ProcessEntry> previous) {
+        List<ProcessEntry> entries = new ArrayList<>(clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            entries.add(start(clients.get(i), previous.get(i)));
+        }
+        return entries;
+    }
+
+    void stop(ProcessEntry entry);
+
+    // Removes process that is corrupted or does not match the DB, stores can keep its data aside
+    default void quarantine(ProcessEntry entry, String reason) {
+        stop(entry);
+    }
+
+    // Folder with everything this store writes, for metrics
+    File folder();
+
+    // Waits until every write accepted so far is done, stores that write synchronously have nothing to wait for
+    default void flush() {
+    }
+
+    // Stops all given processes, stores can do it in one write
+    default void stopAll(Collection<ProcessEntry> entries) {
+        for (ProcessEntry entry : entries) {
+            stop(entry);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.vedran.cardapi.production;
+
+import com.vedran.cardapi.models.Client;
+
+// The card printer used by CardProductionPipeline. Selected with cardapi.production.printer.
+// Calls block until the printer is done, exceptions fail the production of this card.
+public interface CardPrinter {
+
+    // Prepares card data (name on card, chip data) for this request
+    void personalize(Client client) throws Exception;
+
+    void print(Client client) throws Exception;
+}
@@ -0,0 +1,214 @@
+package com.vedran.cardapi.production;
+
+import com.vedran.cardapi.cluster.ClusterMembership;
+import com.vedran.cardapi.feed.ClientChangeFeed;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.ClientChange;
+import com.vedran.cardapi.process.ProcessEntry;
+import com.vedran.cardapi.process.ProcessLocks;
+import com.vedran.cardapi.process.ProcessRegistry;
+import com.vedran.cardapi.repo.ClientCache;
+import com.vedran.cardapi.repo.ClientRepo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Makes cards for STARTED requests: startProcess puts the request in a bounded queue
+// (full queue makes the caller wait), workers take it through the stages below and
+// finish with status PRODUCED. A request that is stopped, deleted or replaced by another
+// request of the same OIB while waiting is dropped at the next stage.
+@Slf4j
+@Component
+public class CardProductionPipeline {
+
+    public enum Stage {
+        VALIDATE,    // still STARTED and still the process of its OIB
+        PERSONALIZE,
+        PRINT,
+        FINISH       // status PRODUCED, process removed
+    }
+
+    // OIB as it was on submit, request can move to another OIB while waiting
+    record Job(Long requestId, Long oib) {
+    }
+
+    private final ClientRepo clientRepo;
+    private final ClientCache clientCache;
+    private final ProcessRegistry processRegistry;
+    private final ProcessLocks processLocks;
+    private final CardPrinter cardPrinter;
+    private final ClientChangeFeed changeFeed;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final BlockingQueue<Job> queue;
+    // Request ids queued or being produced, a request is never printed twice at the same time
+    private final Set<Long> inProduction = ConcurrentHashMap.newKeySet();
+    private final List<Thread> workers = new ArrayList<>();
+    private final Timer[] stageTimers = new Timer[Stage.values().length];
+
+    public CardProductionPipeline(ClientRepo clientRepo, ClientCache clientCache, ProcessRegistry processRegistry,
+                                  ProcessLocks processLocks, CardPrinter cardPrinter, ClientChangeFeed changeFeed,
+                                  MeterRegistry meterRegistry, ClusterMembership cluster,
+                                  @Value("${cardapi.production.enabled:false}") boolean enabled,
+                                  @Value("${cardapi.production.queue-size:1000}") int queueSize,
+                                  @Value("${cardapi.production.workers:4}") int workerCount) {
+        this.clientRepo = clientRepo;
+        this.clientCache = clientCache;
+        this.processRegistry = processRegistry;
+        this.processLocks = processLocks;
+        this.cardPrinter = cardPrinter;
+        this.changeFeed = changeFeed;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        for (Stage stage : Stage.values()) {
+            stageTimers[stage.ordinal()] = Timer.builder("cardapi.production.stage")
+                    .description("Time of one card production stage")
+                    .tag("stage", stage.name())
+                    .register(meterRegistry);
+        }
+        Gauge.builder("cardapi.production.queued", queue, BlockingQueue::size)
+                .description("Card production requests waiting for a worker")
+                .register(meterRegistry);
+        if (enabled) {
+            for (int i = 0; i < workerCount; i++) {
+                Thread worker = new Thread(this::work, "card-production-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+            }
+            // Runs after ProcessRegistry.rebalance (registered before), OIBs taken over are produced here
+            if (cluster.enabled()) cluster.addListener(this::resume);
+        }
+    }
+
+    // Requests STARTED before restart are produced again
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        resume();
+    }
+
+    // Every STARTED process in registry that is not queued yet
+    void resume() {
+        List<Job> resumed = new ArrayList<>();
+        for (ProcessEntry entry : processRegistry.entries()) {
+            String[] data = entry.getData();
+            if (entry.getRequestId() != null && data != null && data.length > 4
+                    && Client.Status.STARTED.name().equals(data[4]) && !inProduction.contains(entry.getRequestId())) {
+                resumed.add(new Job(entry.getRequestId(), entry.getOib()));
+            }
+        }
+        if (resumed.isEmpty()) return;
+        log.info("Resuming card production requests={}", resumed.size());
+        // Own thread, queue can be smaller than the number of resumed requests
+        Thread resume = new Thread(() -> resumed.forEach(this::put), "card-production-resume");
+        resume.setDaemon(true);
+        resume.start();
+    }
+
+    // Call after STARTED is saved. Waits while the queue is full.
+    public void submit(Client client) {
+        if (!enabled) return;
+        put(new Job(client.getId(), client.getOib()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Requests still in queue stay STARTED and are resumed on next startup
+        queue.clear();
+        for (Thread worker : workers) {
+            if (worker.isAlive()) worker.interrupt();
+        }
+    }
+
+    private void put(Job job) {
+        if (!inProduction.add(job.requestId())) return; // Already queued, the worker checks status again at the end
+        try {
+            queue.put(job);
+        } catch (InterruptedException e) {
+            inProduction.remove(job.requestId());
+            Thread.currentThread().interrupt();
+            log.warn("Card production not queued, will resume on restart requestId={}", job.requestId());
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            String outcome;
+            try {
+                outcome = produce(job);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // Stays STARTED, is retried on next startup
+                log.error("Card production failed requestId={} oib={}", job.requestId(), job.oib(), e);
+                outcome = "failed";
+            } finally {
+                inProduction.remove(job.requestId());
+            }
+            meterRegistry.counter("cardapi.production.completed", "outcome", outcome).increment();
+        }
+    }
+
+    private String produce(Job job) throws Exception {
+        long start = System.nanoTime();
+        Client client = clientRepo.findById(job.requestId()).orElse(null);
+        boolean current = isCurrent(client, job);
+        start = record(Stage.VALIDATE, start);
+        if (!current) return "cancelled";
+
+        cardPrinter.personalize(client);
+        start = record(Stage.PERSONALIZE, start);
+        cardPrinter.print(client);
+        start = record(Stage.PRINT, start);
+
+        try (ProcessLocks.Held held = processLocks.lock(client.getOib())) {
+            // Read again under lock, request could be stopped or changed while printing
+            client = clientRepo.findById(job.requestId()).orElse(null);
+            if (!isCurrent(client, job) || !held.covers(client.getOib())) return "cancelled";
+            client.setStatus(Client.Status.PRODUCED);
+            client = clientRepo.save(client);
+            processRegistry.stop(client.getOib());
+            clientCache.evict(client.getId(), client.getOib());
+            changeFeed.publish(ClientChange.Type.PRODUCED, client);
+        }
+        record(Stage.FINISH, start);
+        log.info("Card produced requestId={} oib={}", client.getId(), client.getOib());
+        return "produced";
+    }
+
+    private boolean isCurrent(Client client, Job job) {
+        if (client == null || client.getStatus() != Client.Status.STARTED) return false;
+        ProcessEntry entry = processRegistry.get(client.getOib());
+        return entry != null && job.requestId().equals(entry.getRequestId());
+    }
+
+    private long record(Stage stage, long start) {
+        long now = System.nanoTime();
+        stageTimers[stage.ordinal()].record(now - start, TimeUnit.NANOSECONDS);
+        return now;
+    }
+}
@@ -0,0 +1,35 @@
+package com.vedran.cardapi.production;
+
+import com.vedran.cardapi.models.Client;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Local printer for running offline, only waits as long as a real printer would.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cardapi.production.printer", havingValue = "stub", matchIfMissing = true)
+public class StubCardPrinter implements CardPrinter {
+
+    private final long personalizeMs;
+    private final long printMs;
+
+    public StubCardPrinter(@Value("${cardapi.production.stub.personalize-ms:50}") long personalizeMs,
+                           @Value("${cardapi.production.stub.print-ms:200}") long printMs) {
+        this.personalizeMs = personalizeMs;
+        this.printMs = printMs;
+    }
+
+    @Override
+    public void personalize(Client client) throws InterruptedException {
+        Thread.sleep(personalizeMs);
+        log.debug("Card personalized requestId={} oib={}", client.getId(), client.getOib());
+    }
+
+    @Override
+    public void print(Client client) throws InterruptedException {
+        Thread.sleep(printMs);
+        log.debug("Card printed requestId={} oib={}", client.getId(), client.getOib());
+    }
+}
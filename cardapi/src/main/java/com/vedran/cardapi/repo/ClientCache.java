@@ -0,0 +1,82 @@
+package com.vedran.cardapi.repo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.vedran.cardapi.cluster.ClusterMembership;
+import com.vedran.cardapi.models.Client;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+// Read-through cache for GET client/card/{id} and GET client/{oib}.
+// Only read endpoints go through here, changes always read the DB and then evict what they touched.
+// Cached Clients are shared between requests and must not be modified.
+// Off in a cluster: other nodes change the same rows and evict only their own cache.
+@Component
+public class ClientCache {
+
+    private final ClientRepo clientRepo;
+    private final boolean enabled;
+    private final Cache<Long, Client> byId;
+    private final Cache<Long, List<Client>> byOib;
+
+    public ClientCache(ClientRepo clientRepo, ClusterMembership cluster, MeterRegistry meterRegistry,
+                       @Value("${cardapi.cache.max-size:10000}") long maxSize,
+                       @Value("${cardapi.cache.ttl-ms:30000}") long ttlMs) {
+        this.clientRepo = clientRepo;
+        this.enabled = !cluster.enabled();
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .build();
+        this.byOib = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .build();
+        // cache.gets (hit/miss), cache.size, cache.evictions, cache.puts and load times
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "clientsById");
+        CaffeineCacheMetrics.monitor(meterRegistry, byOib, "clientsByOib");
+    }
+
+    // Empty if there is no Client request under this ID, misses are not cached
+    public Optional<Client> findById(Long id) {
+        if (!enabled) return clientRepo.findById(id);
+        return Optional.ofNullable(byId.get(id, key -> clientRepo.findById(key).orElse(null)));
+    }
+
+    // Empty list if there is none
+    public List<Client> findByOib(Long oib) {
+        if (!enabled) return List.copyOf(clientRepo.findByOib(oib));
+        return byOib.get(oib, key -> List.copyOf(clientRepo.findByOib(key)));
+    }
+
+    // Call after the change is saved. Eviction waits for a load of the same key
+    // that is still running, so an old value read before the save is not kept.
+    public void evict(Long id, Long... oibs) {
+        if (id != null) byId.invalidate(id);
+        for (Long oib : oibs) {
+            if (oib != null) byOib.invalidate(oib);
+        }
+    }
+
+    public void evictIds(Collection<Long> ids) {
+        byId.invalidateAll(ids);
+    }
+
+    public void evictOibs(Collection<Long> oibs) {
+        byOib.invalidateAll(oibs);
+    }
+
+    public void evictAll() {
+        byId.invalidateAll();
+        byOib.invalidateAll();
+    }
+}
@@ -0,0 +1,49 @@
+package com.vedran.cardapi.repo;
+
+import com.vedran.cardapi.models.Client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// fields= of listing endpoints: which Client columns are selected and sent.
+// id is always first, keyset paging needs it.
+public final class ClientFields {
+
+    public static final List<String> all = List.of("id", "oib", "firstName", "lastName", "status", "version");
+
+    private ClientFields() {
+    }
+
+    // "status,oib" -> [id, status, oib]. Null if fields is null (whole Client) or has an unknown name.
+    public static List<String> parse(String fields) {
+        if (fields == null) return null;
+        List<String> selected = new ArrayList<>(all.size());
+        selected.add("id");
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            if (field.isEmpty() || selected.contains(field)) continue;
+            if (!all.contains(field)) return null;
+            selected.add(field);
+        }
+        return selected;
+    }
+
+    // Same as a projected row, for Clients that are already loaded (cache)
+    public static Map<String, Object> of(Client client, List<String> fields) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (String field : fields) {
+            row.put(field, switch (field) {
+                case "id" -> client.getId();
+                case "oib" -> client.getOib();
+                case "firstName" -> client.getFirstName();
+                case "lastName" -> client.getLastName();
+                case "status" -> client.getStatus();
+                case "version" -> client.getVersion();
+                default -> throw new IllegalArgumentException("Unknown field: " + field);
+            });
+        }
+        return row;
+    }
+}
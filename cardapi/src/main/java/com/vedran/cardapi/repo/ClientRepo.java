@@ -1,15 +1,54 @@
 package com.vedran.cardapi.repo;
 
 import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.ClientState;
+import com.vedran.cardapi.models.StatusCount;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
-import org.springframework.data.domain.Example;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import java.util.Collection;
 import java.util.List;
 
-public interface ClientRepo extends CrudRepository<Client, Long>{
+public interface ClientRepo extends CrudRepository<Client, Long>, ClientRepoCustom {
 
+    // Uses idx_client_oib
     List<Client> findByOib(Long oib);
 
-    Iterable<Client> findAll(Example<Client> example);
+    // Uses idx_client_status
+    List<Client> findByStatus(Client.Status status);
 
-    //List<Client> findByFirstNameAndLastName(String firstname, String lastname);
+    // Only the columns reconcile compares: no entities, nothing for the persistence context to track
+    @Query("select new com.vedran.cardapi.models.ClientState(c.id, c.oib, c.status) from Client c where c.id in :ids")
+    List<ClientState> findStatesByIds(@Param("ids") Collection<Long> ids);
+
+    // Primary key range, for dense ids much cheaper than an IN list of the same ids
+    @Query("select new com.vedran.cardapi.models.ClientState(c.id, c.oib, c.status) from Client c where c.id between :fromId and :toId")
+    List<ClientState> findStatesByIdRange(@Param("fromId") Long fromId, @Param("toId") Long toId);
+
+    @Query("select new com.vedran.cardapi.models.ClientState(c.id, c.oib, c.status) from Client c where c.status = :status")
+    List<ClientState> findStatesByStatus(@Param("status") Client.Status status);
+
+    // One GROUP BY, answered from idx_client_status. Statuses without requests are missing.
+    @Query("select new com.vedran.cardapi.models.StatusCount(c.status, count(c)) from Client c group by c.status")
+    List<StatusCount> countByStatus();
+
+    // Single DELETE statement, unlike derived deleteByOib (select, then delete row by row)
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Client c where c.oib = :oib")
+    int deleteAllByOibInBulk(@Param("oib") Long oib);
+
+    // Rows inserted without JPA can have no version, they get version 1 as after a first save
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Client c set c.status = :newStatus, c.version = coalesce(c.version, 0) + 1 where c.status = :oldStatus")
+    int updateStatusInBulk(@Param("oldStatus") Client.Status oldStatus, @Param("newStatus") Client.Status newStatus);
+
+    // One statement for batch start/stop, callers hold ProcessLocks of all OIBs so there is no version check
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Client c set c.status = :newStatus, c.version = coalesce(c.version, 0) + 1 where c.id in :ids")
+    int updateStatusByIdsInBulk(@Param("ids") Collection<Long> ids, @Param("newStatus") Client.Status newStatus);
 }
@@ -0,0 +1,23 @@
+package com.vedran.cardapi.repo;
+
+import com.vedran.cardapi.models.Client;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Keyset (id based) paging and streaming of Client rows, implemented in ClientRepoCustomImpl
+public interface ClientRepoCustom {
+
+    // Up to limit rows with id > afterId (all if afterId is null), ordered by id
+    List<Client> findPage(Specification<Client> spec, Long afterId, int limit);
+
+    // Must be consumed inside a transaction and closed. Rows are detached as they are read.
+    Stream<Client> streamAll(Specification<Client> spec, int fetchSize);
+
+    // Same as above, selecting only fields (see ClientFields.parse), one map per row in order of fields
+    List<Map<String, Object>> findPage(Specification<Client> spec, Long afterId, int limit, List<String> fields);
+
+    Stream<Map<String, Object>> streamAll(Specification<Client> spec, int fetchSize, List<String> fields);
+}
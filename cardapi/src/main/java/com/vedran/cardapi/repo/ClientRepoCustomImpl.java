@@ -0,0 +1,96 @@
+package com.vedran.cardapi.repo;
+
+import com.vedran.cardapi.models.Client;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class ClientRepoCustomImpl implements ClientRepoCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Client> findPage(Specification<Client> spec, Long afterId, int limit) {
+        Specification<Client> withKey = Specification.where(spec).and(ClientSpecs.idGreaterThan(afterId));
+        return entityManager.createQuery(orderedById(withKey))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<Client> streamAll(Specification<Client> spec, int fetchSize) {
+        return entityManager.createQuery(orderedById(spec))
+                .setHint(AvailableHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(AvailableHints.HINT_READ_ONLY, true)
+                .getResultStream()
+                .map(client -> {
+                    // Keep persistence context empty, memory stays the same for any table size
+                    entityManager.detach(client);
+                    return client;
+                });
+    }
+
+    @Override
+    public List<Map<String, Object>> findPage(Specification<Client> spec, Long afterId, int limit, List<String> fields) {
+        Specification<Client> withKey = Specification.where(spec).and(ClientSpecs.idGreaterThan(afterId));
+        return entityManager.createQuery(orderedById(withKey, fields))
+                .setMaxResults(limit)
+                .getResultList().stream()
+                .map(tuple -> toRow(tuple, fields))
+                .toList();
+    }
+
+    @Override
+    public Stream<Map<String, Object>> streamAll(Specification<Client> spec, int fetchSize, List<String> fields) {
+        // Tuples are not managed, nothing to detach
+        return entityManager.createQuery(orderedById(spec, fields))
+                .setHint(AvailableHints.HINT_FETCH_SIZE, fetchSize)
+                .getResultStream()
+                .map(tuple -> toRow(tuple, fields));
+    }
+
+    private CriteriaQuery<Client> orderedById(Specification<Client> spec) {
+        CriteriaQuery<Client> query = entityManager.getCriteriaBuilder().createQuery(Client.class);
+        return orderedById(query, query.from(Client.class), spec);
+    }
+
+    // SELECT of only these columns
+    private CriteriaQuery<Tuple> orderedById(Specification<Client> spec, List<String> fields) {
+        CriteriaQuery<Tuple> query = entityManager.getCriteriaBuilder().createTupleQuery();
+        Root<Client> root = query.from(Client.class);
+        List<Selection<?>> selections = fields.stream().<Selection<?>>map(field -> root.get(field).alias(field)).toList();
+        query.multiselect(selections);
+        return orderedById(query, root, spec);
+    }
+
+    private <T> CriteriaQuery<T> orderedById(CriteriaQuery<T> query, Root<Client> root, Specification<Client> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        if (spec != null) {
+            Predicate predicate = spec.toPredicate(root, query, cb);
+            if (predicate != null) query.where(predicate);
+        }
+        query.orderBy(cb.asc(root.get("id")));
+        return query;
+    }
+
+    private static Map<String, Object> toRow(Tuple tuple, List<String> fields) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (String field : fields) {
+            row.put(field, tuple.get(field));
+        }
+        return row;
+    }
+}
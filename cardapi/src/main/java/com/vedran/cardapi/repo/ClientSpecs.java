@@ -0,0 +1,43 @@
+package com.vedran.cardapi.repo;
+
+import com.vedran.cardapi.models.Client;
+import org.springframework.data.jpa.domain.Specification;
+
+// Criteria filters for Client listing. Null arguments are ignored.
+public final class ClientSpecs {
+
+    private ClientSpecs() {
+    }
+
+    public static Specification<Client> filter(Long oib, String firstName, String lastName, Client.Status status) {
+        return Specification.where(hasOib(oib))
+                .and(hasFirstName(firstName))
+                .and(hasLastName(lastName))
+                .and(hasStatus(status));
+    }
+
+    public static Specification<Client> idGreaterThan(Long afterId) {
+        if (afterId == null) return null;
+        return (root, query, cb) -> cb.greaterThan(root.get("id"), afterId);
+    }
+
+    public static Specification<Client> hasOib(Long oib) {
+        if (oib == null) return null;
+        return (root, query, cb) -> cb.equal(root.get("oib"), oib);
+    }
+
+    public static Specification<Client> hasFirstName(String firstName) {
+        if (firstName == null) return null;
+        return (root, query, cb) -> cb.equal(root.get("firstName"), firstName);
+    }
+
+    public static Specification<Client> hasLastName(String lastName) {
+        if (lastName == null) return null;
+        return (root, query, cb) -> cb.equal(root.get("lastName"), lastName);
+    }
+
+    public static Specification<Client> hasStatus(Client.Status status) {
+        if (status == null) return null;
+        return (root, query, cb) -> cb.equal(root.get("status"), status);
+    }
+}
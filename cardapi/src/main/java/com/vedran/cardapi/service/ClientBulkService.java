@@ -0,0 +1,27 @@
+package com.vedran.cardapi.service;
+
+import com.vedran.cardapi.models.Client;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+// Inserts already validated Client requests, one transaction and JDBC batch per call.
+@Service
+public class ClientBulkService {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Transactional
+    public void insertBatch(List<Client> clients) {
+        for (Client client : clients) {
+            entityManager.persist(client);
+        }
+        entityManager.flush();
+        // Do not keep inserted rows in persistence context between batches
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,17 @@
+-- Schema as generated from Client (ddl-auto=update), prod profile validates entities against it
+create sequence client_seq start with 1 increment by 50;
+
+-- status is Client.Status ordinal: REQUESTED, STARTED, INACTIVE, PRODUCED
+create table client (
+    status tinyint check (status between 0 and 3),
+    id bigint not null,
+    oib bigint,
+    version bigint,
+    first_name varchar(255),
+    last_name varchar(255),
+    primary key (id)
+);
+
+create index idx_client_oib on client (oib);
+create index idx_client_status on client (status);
+create index idx_client_last_first_name on client (last_name, first_name);
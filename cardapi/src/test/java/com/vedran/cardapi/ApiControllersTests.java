@@ -0,0 +1,510 @@
+package com.vedran.cardapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vedran.cardapi.feed.ClientChangeFeed;
+import com.vedran.cardapi.models.Oib;
+import com.vedran.cardapi.process.ProcessRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Endpoints through MockMvc, each test with its own OIBs and last name: rows of other tests stay in the database
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:apitest;DB_CLOSE_DELAY=-1",
+		// Production would move requests on to PRODUCED while test checks them
+		"cardapi.production.enabled=false",
+		// Small pages and batches, so bounds are reached with a few rows
+		"cardapi.clients.page-size=2",
+		"cardapi.clients.max-page-size=3",
+		"cardapi.bulk.batch-size=2",
+		"cardapi.process.batch-max-size=5"})
+@AutoConfigureMockMvc
+class ApiControllersTests {
+
+	@TempDir
+	static Path processFolder;
+
+	@DynamicPropertySource
+	static void processProperties(DynamicPropertyRegistry registry) {
+		registry.add("cardapi.process.folder", () -> processFolder.toString());
+	}
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private ClientChangeFeed changeFeed;
+	@Autowired
+	private ProcessRegistry processRegistry;
+
+	@Test
+	void invalidOibFilterIsRejected() throws Exception {
+		mockMvc.perform(get("/clients").param("oib", "12345678900"))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message").value("Invalid OIB: 12345678900"));
+		mockMvc.perform(get("/clients").param("oib", "12345678900").accept("application/x-ndjson"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+		mockMvc.perform(get("/clients").param("oib", "12345678903"))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void pagesStayWithinBounds() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			create(Oib.withCheckDigit(1100000000L + i), "Ivan", "Paging");
+		}
+		// No limit: page-size, and a next page while the page is full
+		MvcResult first = mockMvc.perform(get("/clients").param("lastName", "Paging"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(2))
+				.andExpect(header().exists(HttpHeaders.LINK))
+				.andReturn();
+		String afterId = first.getResponse().getHeader("X-Next-After-Id");
+		MvcResult second = mockMvc.perform(get("/clients").param("lastName", "Paging").param("afterId", afterId))
+				.andExpect(jsonPath("$.length()").value(2))
+				.andReturn();
+		JsonNode firstPage = objectMapper.readTree(first.getResponse().getContentAsString());
+		JsonNode secondPage = objectMapper.readTree(second.getResponse().getContentAsString());
+		assertTrue(secondPage.get(0).get("id").asLong() > firstPage.get(1).get("id").asLong());
+		mockMvc.perform(get("/clients").param("lastName", "Paging")
+						.param("afterId", second.getResponse().getHeader("X-Next-After-Id")))
+				.andExpect(jsonPath("$.length()").value(0))
+				.andExpect(header().doesNotExist(HttpHeaders.LINK))
+				.andExpect(header().doesNotExist("X-Next-After-Id"));
+
+		// Limit under 1 is page-size, over max-page-size is max-page-size
+		mockMvc.perform(get("/clients").param("lastName", "Paging").param("limit", "0"))
+				.andExpect(jsonPath("$.length()").value(2));
+		mockMvc.perform(get("/clients").param("lastName", "Paging").param("limit", "-5"))
+				.andExpect(jsonPath("$.length()").value(2));
+		mockMvc.perform(get("/clients").param("lastName", "Paging").param("limit", "1"))
+				.andExpect(jsonPath("$.length()").value(1));
+		mockMvc.perform(get("/clients").param("lastName", "Paging").param("limit", "5000"))
+				.andExpect(jsonPath("$.length()").value(3))
+				.andExpect(header().string(HttpHeaders.LINK, containsString("limit=3")));
+	}
+
+	@Test
+	void bulkInsertReportsEveryRecord() throws Exception {
+		long first = Oib.withCheckDigit(1200000000L);
+		long second = Oib.withCheckDigit(1200000001L);
+		long tooLong = Oib.withCheckDigit(1200000002L);
+		long sameBatch = Oib.withCheckDigit(1200000003L);
+		long afterBrokenJson = Oib.withCheckDigit(1200000004L);
+		String body = String.join("\n",
+				"{\"oib\":" + first + ",\"firstName\":\"Ana\",\"lastName\":\"Bulk\"}",
+				"{\"oib\":12345678900,\"firstName\":\"Ana\",\"lastName\":\"Bulk\"}",
+				"{\"oib\":" + first + ",\"firstName\":\"Ana\"}",
+				"{\"oib\":" + second + ",\"firstName\":\"Ana\",\"lastName\":\"Bulk\"}",
+				// Longer than the column: the database rejects it and with it the whole batch
+				"{\"oib\":" + tooLong + ",\"firstName\":\"" + "A".repeat(300) + "\",\"lastName\":\"Bulk\"}",
+				"{\"oib\":" + sameBatch + ",\"firstName\":\"Ana\",\"lastName\":\"Bulk\"}",
+				"{\"oib\":",
+				"{\"oib\":" + afterBrokenJson + ",\"firstName\":\"Ana\",\"lastName\":\"Bulk\"}");
+		mockMvc.perform(post("/client/card/bulk").contentType("application/x-ndjson").content(body))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.received").value(7))
+				.andExpect(jsonPath("$.created").value(2))
+				.andExpect(jsonPath("$.rejected").value(5))
+				.andExpect(jsonPath("$.results[0].id").isNumber())
+				.andExpect(jsonPath("$.results[1].error").value(containsString("Invalid OIB")))
+				.andExpect(jsonPath("$.results[2].error").value(containsString("Missing data: lastName")))
+				.andExpect(jsonPath("$.results[3].id").isNumber())
+				.andExpect(jsonPath("$.results[4].error").value(containsString("Internal Server Problem")))
+				.andExpect(jsonPath("$.results[5].error").value(containsString("Internal Server Problem")))
+				.andExpect(jsonPath("$.results[6].index").value(6))
+				.andExpect(jsonPath("$.results[6].error").value(containsString("Invalid JSON")));
+
+		mockMvc.perform(get("/client/" + first)).andExpect(jsonPath("$.length()").value(1));
+		mockMvc.perform(get("/client/" + second)).andExpect(jsonPath("$.length()").value(1));
+		mockMvc.perform(get("/client/" + tooLong)).andExpect(jsonPath("$.length()").value(0));
+		mockMvc.perform(get("/client/" + sameBatch)).andExpect(jsonPath("$.length()").value(0));
+		mockMvc.perform(get("/client/" + afterBrokenJson)).andExpect(jsonPath("$.length()").value(0));
+	}
+
+	@Test
+	void changesEvictCachedReads() throws Exception {
+		long oib = Oib.withCheckDigit(1300000000L);
+		long id = create(oib, "Ivan", "Cached").get("id").asLong();
+		// Both lookups are cached now
+		mockMvc.perform(get("/client/card/" + id)).andExpect(jsonPath("$.firstName").value("Ivan"));
+		mockMvc.perform(get("/client/" + oib)).andExpect(jsonPath("$[0].firstName").value("Ivan"));
+
+		mockMvc.perform(patch("/client/card/" + id).contentType(MediaType.APPLICATION_JSON).content("{\"firstName\":\"Marko\"}"))
+				.andExpect(status().isOk());
+		mockMvc.perform(get("/client/card/" + id)).andExpect(jsonPath("$.firstName").value("Marko"));
+		mockMvc.perform(get("/client/" + oib)).andExpect(jsonPath("$[0].firstName").value("Marko"));
+
+		mockMvc.perform(post("/client/card/bulk").contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"oib\":" + oib + ",\"firstName\":\"Ana\",\"lastName\":\"Cached\"}]"))
+				.andExpect(jsonPath("$.created").value(1));
+		mockMvc.perform(get("/client/" + oib)).andExpect(jsonPath("$.length()").value(2));
+
+		mockMvc.perform(delete("/client/card/" + id)).andExpect(status().isOk());
+		mockMvc.perform(get("/client/card/" + id)).andExpect(status().isNotFound());
+		mockMvc.perform(get("/client/" + oib)).andExpect(jsonPath("$.length()").value(1));
+
+		mockMvc.perform(delete("/client/" + oib)).andExpect(status().isOk());
+		mockMvc.perform(get("/client/" + oib)).andExpect(jsonPath("$.length()").value(0));
+	}
+
+	@Test
+	void changeFeedResumesAfterLastEventId() throws Exception {
+		create(Oib.withCheckDigit(1400000000L), "Ivan", "Feed");
+		// Position is <epoch>-<offset>, event ids are <epoch>:<offset>
+		String[] position = changeFeed.position().split("-");
+		long epoch = Long.parseLong(position[0]);
+		long seen = Long.parseLong(position[1]);
+		create(Oib.withCheckDigit(1400000001L), "Ana", "Feed");
+		create(Oib.withCheckDigit(1400000002L), "Iva", "Feed");
+
+		MvcResult resumed = mockMvc.perform(get("/clients/changes").header("Last-Event-ID", epoch + ":" + seen))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		String events = awaitContent(resumed, "id:" + epoch + ":" + (seen + 2));
+		assertTrue(events.contains("id:" + epoch + ":" + (seen + 1) + "\n"));
+		assertFalse(events.contains("id:" + epoch + ":" + seen + "\n"));
+		assertFalse(events.contains("event:reset"));
+
+		// Id of an earlier run: reset, then everything still in buffer
+		MvcResult unknown = mockMvc.perform(get("/clients/changes").param("lastEventId", (epoch - 1) + ":" + seen))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		assertTrue(awaitContent(unknown, "id:" + epoch + ":" + (seen + 2)).contains("event:reset"));
+	}
+
+	@Test
+	void unchangedReadsAnswerNotModified() throws Exception {
+		long oib = Oib.withCheckDigit(1500000000L);
+		long id = create(oib, "Ivan", "Etag").get("id").asLong();
+
+		String etag = mockMvc.perform(get("/client/card/" + id)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get("/client/card/" + id).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified())
+				.andExpect(content().string(""));
+		String listEtag = mockMvc.perform(get("/clients").param("lastName", "Etag")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get("/clients").param("lastName", "Etag").header(HttpHeaders.IF_NONE_MATCH, listEtag))
+				.andExpect(status().isNotModified());
+		String oibEtag = mockMvc.perform(get("/client/" + oib)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get("/client/" + oib).header(HttpHeaders.IF_NONE_MATCH, oibEtag))
+				.andExpect(status().isNotModified());
+
+		mockMvc.perform(patch("/client/card/" + id).contentType(MediaType.APPLICATION_JSON).content("{\"firstName\":\"Marko\"}"))
+				.andExpect(status().isOk());
+		String changed = mockMvc.perform(get("/client/card/" + id).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.firstName").value("Marko"))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotEquals(etag, changed);
+		mockMvc.perform(get("/clients").param("lastName", "Etag").header(HttpHeaders.IF_NONE_MATCH, listEtag))
+				.andExpect(status().isOk());
+		mockMvc.perform(get("/client/" + oib).header(HttpHeaders.IF_NONE_MATCH, oibEtag))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void duplicateIdempotencyKeyGetsFirstResponse() throws Exception {
+		long oib = Oib.withCheckDigit(1600000000L);
+		String key = UUID.randomUUID().toString();
+		String body = "{\"oib\":" + oib + ",\"firstName\":\"Ivan\",\"lastName\":\"Idempotent\"}";
+
+		// Same key at the same time: one runs, the others wait for its response
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<MvcResult>> calls = new ArrayList<>();
+		try {
+			for (int i = 0; i < 8; i++) {
+				Callable<MvcResult> call = () -> mockMvc.perform(post("/client/card")
+						.header("Idempotency-Key", key).contentType(MediaType.APPLICATION_JSON).content(body)).andReturn();
+				calls.add(executor.submit(call));
+			}
+			long replayed = 0;
+			Long id = null;
+			for (Future<MvcResult> call : calls) {
+				MvcResult result = call.get();
+				assertEquals(201, result.getResponse().getStatus());
+				long createdId = objectMapper.readTree(result.getResponse().getContentAsString()).get("id").asLong();
+				if (id == null) id = createdId;
+				assertEquals(id, createdId);
+				if ("true".equals(result.getResponse().getHeader("Idempotent-Replayed"))) replayed++;
+			}
+			assertEquals(7, replayed);
+		} finally {
+			executor.shutdown();
+		}
+		mockMvc.perform(get("/client/" + oib)).andExpect(jsonPath("$.length()").value(1));
+
+		// Later retry is replayed too, same key with another body is refused
+		mockMvc.perform(post("/client/card").header("Idempotency-Key", key).contentType(MediaType.APPLICATION_JSON).content(body))
+				.andExpect(status().isCreated())
+				.andExpect(header().string("Idempotent-Replayed", "true"));
+		mockMvc.perform(post("/client/card").header("Idempotency-Key", key).contentType(MediaType.APPLICATION_JSON)
+						.content(body.replace("Ivan", "Marko")))
+				.andExpect(status().isUnprocessableEntity());
+		mockMvc.perform(get("/client/" + oib)).andExpect(jsonPath("$.length()").value(1));
+	}
+
+	@Test
+	void batchStartAndStopReportOutcomePerId() throws Exception {
+		long sharedOib = Oib.withCheckDigit(1700000000L);
+		long otherOib = Oib.withCheckDigit(1700000001L);
+		long first = create(sharedOib, "Ivan", "Batch").get("id").asLong();
+		long second = create(sharedOib, "Ana", "Batch").get("id").asLong();
+		long other = create(otherOib, "Marko", "Batch").get("id").asLong();
+		long missing = 999999999L;
+
+		// Duplicate id counts once, second request of the OIB loses to the first
+		JsonNode started = batch(post("/clients/startProcess"), first, second, other, missing, first);
+		assertEquals(4, started.get("received").asInt());
+		assertEquals(2, started.get("changed").asInt());
+		assertOutcomes(started, "STARTED", "CONFLICT", "STARTED", "NOT_FOUND");
+		assertEquals(first, processRegistry.get(sharedOib).getRequestId());
+		assertEquals(other, processRegistry.get(otherOib).getRequestId());
+		assertEquals(1, processFiles(sharedOib).length);
+		// Version in the answer is the one in DB after the bulk update, PATCH with it is accepted
+		long version = started.get("results").get(0).get("client").get("version").asLong();
+		mockMvc.perform(get("/client/card/" + first))
+				.andExpect(jsonPath("$.status").value("STARTED"))
+				.andExpect(jsonPath("$.version").value(version));
+
+		assertOutcomes(batch(post("/clients/startProcess"), first, second), "ALREADY_STARTED", "CONFLICT");
+
+		JsonNode stopped = batch(delete("/clients/stopProcess"), first, second, missing);
+		assertEquals(1, stopped.get("changed").asInt());
+		assertOutcomes(stopped, "STOPPED", "NOT_STARTED", "NOT_FOUND");
+		long stoppedVersion = stopped.get("results").get(0).get("client").get("version").asLong();
+		mockMvc.perform(patch("/client/card/" + first).contentType(MediaType.APPLICATION_JSON)
+						.content("{\"firstName\":\"Ivo\",\"version\":" + stoppedVersion + "}"))
+				.andExpect(status().isOk());
+
+		// Process of an INACTIVE request can be taken over
+		assertOutcomes(batch(post("/clients/startProcess"), second), "STARTED");
+		assertEquals(second, processRegistry.get(sharedOib).getRequestId());
+		assertEquals(1, processFiles(sharedOib).length);
+	}
+
+	@Test
+	void batchOverMaxSizeIsRejected() throws Exception {
+		// Ids no request has, so rows of other tests stay as they are
+		String ids = "[900000001,900000002,900000003,900000004,900000005,900000006]";
+		mockMvc.perform(post("/clients/startProcess").contentType(MediaType.APPLICATION_JSON).content(ids))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message").value("Too many ids. Maximum is 5."));
+		mockMvc.perform(delete("/clients/stopProcess").contentType(MediaType.APPLICATION_JSON).content(ids))
+				.andExpect(status().isBadRequest());
+		mockMvc.perform(post("/clients/startProcess").contentType(MediaType.APPLICATION_JSON).content("[900000001,900000002,900000003,900000004,900000005]"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.results[4].outcome").value("NOT_FOUND"));
+	}
+
+	@Test
+	void errorsAnswerWithStatusAndApiError() throws Exception {
+		// Missing id, answered by the handler
+		mockMvc.perform(get("/client/card/999999999"))
+				.andExpect(status().isNotFound())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+				.andExpect(jsonPath("$.length()").value(3))
+				.andExpect(jsonPath("$.status").value(404))
+				.andExpect(jsonPath("$.error").value("Not Found"))
+				.andExpect(jsonPath("$.message").value("Client request under ID: 999999999 does not exist."));
+		mockMvc.perform(patch("/client/card/999999999").contentType(MediaType.APPLICATION_JSON).content("{}"))
+				.andExpect(status().isNotFound());
+		mockMvc.perform(delete("/client/card/999999999/stopProcess"))
+				.andExpect(status().isNotFound());
+
+		// Bad OIB, path variable of wrong type (ApiExceptionHandler), unreadable body
+		mockMvc.perform(post("/client/card").contentType(MediaType.APPLICATION_JSON)
+						.content("{\"oib\":12345678900,\"firstName\":\"Ivan\",\"lastName\":\"Errors\"}"))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.status").value(400))
+				.andExpect(jsonPath("$.error").value("Bad Request"))
+				.andExpect(jsonPath("$.message").value("Client request not created. Invalid OIB: 12345678900"));
+		mockMvc.perform(get("/client/12345678900"))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message").value("Invalid OIB: 12345678900"));
+		mockMvc.perform(get("/client/card/abc"))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.status").value(400))
+				.andExpect(jsonPath("$.message").value("Invalid id: abc"));
+		mockMvc.perform(post("/client/card").contentType(MediaType.APPLICATION_JSON).content("{\"oib\":"))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message").value("Invalid JSON."));
+	}
+
+	@Test
+	void conflictsAnswer409() throws Exception {
+		long oib = Oib.withCheckDigit(1800000000L);
+		long first = create(oib, "Ivan", "Conflict").get("id").asLong();
+		long second = create(oib, "Ana", "Conflict").get("id").asLong();
+
+		// Other request of the OIB holds the process
+		mockMvc.perform(post("/client/card/" + first + "/startProcess")).andExpect(status().isOk());
+		mockMvc.perform(post("/client/card/" + second + "/startProcess"))
+				.andExpect(status().isConflict())
+				.andExpect(jsonPath("$.status").value(409))
+				.andExpect(jsonPath("$.error").value("Conflict"))
+				.andExpect(jsonPath("$.message").value("Process already started for different Client request ID: " + first + "."));
+
+		// Stale version: PATCH checks it itself, PUT fails on save (ObjectOptimisticLockingFailureException)
+		JsonNode current = objectMapper.readTree(mockMvc.perform(get("/client/card/" + second))
+				.andReturn().getResponse().getContentAsString());
+		long stale = current.get("version").asLong();
+		mockMvc.perform(patch("/client/card/" + second).contentType(MediaType.APPLICATION_JSON).content("{\"firstName\":\"Iva\"}"))
+				.andExpect(status().isOk());
+		mockMvc.perform(patch("/client/card/" + second).contentType(MediaType.APPLICATION_JSON)
+						.content("{\"firstName\":\"Eva\",\"version\":" + stale + "}"))
+				.andExpect(status().isConflict())
+				.andExpect(jsonPath("$.message").value("Client request under ID: " + second + " was changed by another request. Try again."));
+		mockMvc.perform(put("/client/card/" + second).contentType(MediaType.APPLICATION_JSON)
+						.content("{\"oib\":" + oib + ",\"firstName\":\"Eva\",\"lastName\":\"Conflict\",\"version\":" + stale + "}"))
+				.andExpect(status().isConflict())
+				.andExpect(jsonPath("$.status").value(409))
+				.andExpect(jsonPath("$.message").value("Client request was changed by another request. Try again."));
+		mockMvc.perform(get("/client/card/" + second)).andExpect(jsonPath("$.firstName").value("Iva"));
+	}
+
+	@Test
+	void singleNodeHasNoClusterEndpoints() throws Exception {
+		mockMvc.perform(post("/cluster/changes").contentType(MediaType.APPLICATION_JSON).content("[]"))
+				.andExpect(status().isNotFound());
+		mockMvc.perform(post("/cluster/processes/1"))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	void clientFieldsAreProjected() throws Exception {
+		long oib = Oib.withCheckDigit(1900000000L);
+		JsonNode created = create(oib, "Ivan", "Fields");
+		mockMvc.perform(get("/client/" + oib).param("fields", "status,nope"))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message").value(containsString("Invalid fields: status,nope")));
+
+		MvcResult projected = mockMvc.perform(get("/client/" + oib).param("fields", "status,oib"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(1))
+				.andReturn();
+		JsonNode row = objectMapper.readTree(projected.getResponse().getContentAsString()).get(0);
+		// id first, then fields in the order asked
+		assertEquals(List.of("id", "status", "oib"), fieldNames(row));
+		assertEquals(created.get("id").asLong(), row.get("id").asLong());
+		assertEquals("REQUESTED", row.get("status").asText());
+		assertEquals(oib, row.get("oib").asLong());
+
+		// Whole Clients are another representation of the same rows
+		String etag = projected.getResponse().getHeader(HttpHeaders.ETAG);
+		String wholeEtag = mockMvc.perform(get("/client/" + oib)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotEquals(etag, wholeEtag);
+		mockMvc.perform(get("/client/" + oib).param("fields", "status,oib").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+	}
+
+	@Test
+	void countFollowsChanges() throws Exception {
+		MvcResult before = mockMvc.perform(get("/clients/count"))
+				.andExpect(status().isOk())
+				.andReturn();
+		JsonNode counts = objectMapper.readTree(before.getResponse().getContentAsString());
+		// Every status, also those without requests
+		assertEquals(List.of("REQUESTED", "STARTED", "INACTIVE", "PRODUCED"), fieldNames(counts));
+		String etag = before.getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotNull(etag);
+		mockMvc.perform(get("/clients/count").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, etag));
+
+		create(Oib.withCheckDigit(2000000000L), "Ivan", "Count");
+
+		MvcResult after = mockMvc.perform(get("/clients/count").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andReturn();
+		assertNotEquals(etag, after.getResponse().getHeader(HttpHeaders.ETAG));
+		JsonNode countsAfter = objectMapper.readTree(after.getResponse().getContentAsString());
+		assertEquals(counts.get("REQUESTED").asLong() + 1, countsAfter.get("REQUESTED").asLong());
+	}
+
+	private JsonNode create(long oib, String firstName, String lastName) throws Exception {
+		String body = "{\"oib\":" + oib + ",\"firstName\":\"" + firstName + "\",\"lastName\":\"" + lastName + "\"}";
+		MvcResult result = mockMvc.perform(post("/client/card").contentType(MediaType.APPLICATION_JSON).content(body))
+				.andExpect(status().isCreated())
+				.andReturn();
+		return objectMapper.readTree(result.getResponse().getContentAsString());
+	}
+
+	private JsonNode batch(MockHttpServletRequestBuilder request, long... ids) throws Exception {
+		MvcResult result = mockMvc.perform(request.contentType(MediaType.APPLICATION_JSON).content(Arrays.toString(ids)))
+				.andExpect(status().isOk())
+				.andReturn();
+		return objectMapper.readTree(result.getResponse().getContentAsString());
+	}
+
+	private static void assertOutcomes(JsonNode batchResult, String... outcomes) {
+		JsonNode results = batchResult.get("results");
+		assertEquals(outcomes.length, results.size());
+		for (int i = 0; i < outcomes.length; i++) {
+			assertEquals(outcomes[i], results.get(i).get("outcome").asText(), "Outcome of " + results.get(i).get("id"));
+		}
+	}
+
+	private static List<String> fieldNames(JsonNode node) {
+		List<String> names = new ArrayList<>();
+		node.fieldNames().forEachRemaining(names::add);
+		return names;
+	}
+
+	private static File[] processFiles(long oib) {
+		File[] files = processFolder.toFile().listFiles((dir, name) -> name.startsWith(oib + "--"));
+		assertNotNull(files);
+		return files;
+	}
+
+	// Content of a stream that is still open, once it contains text
+	private static String awaitContent(MvcResult result, String text) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		String content = result.getResponse().getContentAsString();
+		while (!content.contains(text)) {
+			assertTrue(System.currentTimeMillis() < deadline, "Stream has no " + text + ": " + content);
+			Thread.sleep(20);
+			content = result.getResponse().getContentAsString();
+		}
+		return content;
+	}
+}
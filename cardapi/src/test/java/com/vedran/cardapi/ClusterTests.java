@@ -0,0 +1,248 @@
+package com.vedran.cardapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vedran.cardapi.cluster.ClusterClient;
+import com.vedran.cardapi.cluster.ClusterMembership;
+import com.vedran.cardapi.feed.ClientChangeFeed;
+import com.vedran.cardapi.models.Oib;
+import com.vedran.cardapi.process.ProcessEntry;
+import com.vedran.cardapi.process.ProcessRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Three nodes on localhost, one file database and one process folder: every OIB has its process
+// on exactly one node, also after a node goes down.
+class ClusterTests {
+
+	static final int nodes = 3;
+	static final int oibs = 30;
+
+	@TempDir
+	static Path shared;
+
+	static final ObjectMapper objectMapper = new ObjectMapper();
+	static final HttpClient httpClient = HttpClient.newHttpClient();
+	static final List<String> urls = new ArrayList<>();
+	static final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+	@BeforeAll
+	static void startNodes() throws Exception {
+		for (int i = 0; i < nodes; i++) {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				urls.add("http://localhost:" + socket.getLocalPort());
+			}
+		}
+		for (String url : urls) {
+			// Command line arguments, they override application.properties
+			contexts.add(new SpringApplicationBuilder(CardapiApplication.class).run(
+					"--server.port=" + URI.create(url).getPort(),
+					"--spring.datasource.url=jdbc:h2:file:" + shared.resolve("db") + ";AUTO_SERVER=TRUE",
+					"--cardapi.process.folder=" + shared.resolve("processes"),
+					"--cardapi.cluster.nodes=" + String.join(",", urls),
+					"--cardapi.cluster.self=" + url,
+					"--cardapi.cluster.heartbeat-ms=200",
+					"--cardapi.cluster.down-after=2",
+					// Production would move requests on to PRODUCED while test checks them
+					"--cardapi.production.enabled=false"));
+		}
+		await(() -> contexts.stream().allMatch(context -> membership(context).live().size() == nodes));
+	}
+
+	@AfterAll
+	static void stopNodes() {
+		contexts.forEach(ConfigurableApplicationContext::close);
+	}
+
+	@Test
+	void everyProcessIsOnItsOwnerAlsoAfterNodeIsDown() throws Exception {
+		List<Long> ids = new ArrayList<>();
+		List<Long> clientOibs = new ArrayList<>();
+		for (int i = 0; i < oibs; i++) {
+			long oib = Oib.withCheckDigit(1000000000L + i);
+			JsonNode created = send(urls.get(i % nodes), "POST", "/client/card",
+					"{\"oib\":" + oib + ",\"firstName\":\"Ivan\",\"lastName\":\"Horvat\"}");
+			ids.add(created.get("id").asLong());
+			clientOibs.add(oib);
+		}
+
+		// Ids of all shards in one call to one node
+		JsonNode started = send(urls.get(0), "POST", "/clients/startProcess", objectMapper.writeValueAsString(ids));
+		assertEquals(oibs, started.get("changed").asInt());
+		for (JsonNode record : started.get("results")) {
+			assertEquals("STARTED", record.get("outcome").asText(), "Outcome of " + record.get("id"));
+		}
+		assertOnOwners(contexts, clientOibs, ids);
+
+		// OIB of a started request moves to another node's shard
+		ClusterMembership membership = membership(contexts.get(0));
+		long oldOib = clientOibs.get(0);
+		long newOib = oldOib;
+		for (long digits = 2000000000L; newOib == oldOib || membership.owner(newOib).equals(membership.owner(oldOib)); digits++) {
+			newOib = Oib.withCheckDigit(digits);
+		}
+		List<String> positions = contexts.stream().map(context -> feed(context).position()).toList();
+		send(urls.get(2), "PATCH", "/client/card/" + ids.get(0), "{\"oib\":" + newOib + "}");
+		clientOibs.set(0, newOib);
+		assertOnOwners(contexts, clientOibs, ids);
+
+		// Every node reads the change and has it in its change feed
+		for (String url : urls) {
+			assertEquals(newOib, send(url, "GET", "/client/card/" + ids.get(0), "").get("oib").asLong(), "OIB read on " + url);
+		}
+		for (int i = 0; i < nodes; i++) {
+			ClientChangeFeed feed = feed(contexts.get(i));
+			String before = positions.get(i);
+			await(() -> !feed.position().equals(before));
+		}
+
+		// All requests of an OIB deleted through a node that does not own it
+		long deletedOib = clientOibs.get(1);
+		String notOwner = urls.stream().filter(url -> !url.equals(membership.owner(deletedOib))).findFirst().orElseThrow();
+		send(notOwner, "DELETE", "/client/" + deletedOib, "");
+		clientOibs.remove(1);
+		ids.remove(1);
+		assertOnOwners(contexts, clientOibs, ids);
+		for (ConfigurableApplicationContext context : contexts) {
+			assertNull(registry(context).get(deletedOib), "Process of deleted OIB " + deletedOib);
+		}
+		File[] deletedFiles = shared.resolve("processes").toFile().listFiles((dir, name) -> name.startsWith(deletedOib + "--"));
+		assertNotNull(deletedFiles);
+		assertEquals(0, deletedFiles.length, "Process files of deleted OIB " + deletedOib);
+
+		// Last node goes down, the others take its OIBs from the shared folder
+		contexts.remove(nodes - 1).close();
+		await(() -> contexts.stream().allMatch(context -> membership(context).live().size() == nodes - 1));
+		await(() -> contexts.stream().mapToInt(context -> registry(context).size()).sum() == oibs - 1);
+		assertOnOwners(contexts, clientOibs, ids);
+	}
+
+	@Test
+	void clusterCallsOnlyFromNodes() throws Exception {
+		// Nodes that are still up, the other test stops the last one
+		String node = urls.get(0);
+		String peer = urls.get(1);
+		ClientChangeFeed feed = feed(contexts.get(0));
+		String position = feed.position();
+		String change = "[{\"type\":\"DELETED\",\"id\":1,\"oib\":" + Oib.withCheckDigit(1000000000L) + "}]";
+
+		// No node named, a node outside the cluster, the node itself
+		assertEquals(403, call(node, "POST", "/cluster/changes", change, null).statusCode());
+		assertEquals(403, call(node, "POST", "/cluster/changes", change, "http://localhost:1").statusCode());
+		assertEquals(403, call(node, "POST", "/cluster/changes", change, node).statusCode());
+		assertEquals(403, call(node, "POST", "/cluster/processes/1", "", null).statusCode());
+		assertEquals(403, call(node, "GET", "/cluster/members", "", null).statusCode());
+		assertEquals(position, feed.position());
+
+		// Another node is relayed
+		assertEquals(200, call(node, "POST", "/cluster/changes", change, peer).statusCode());
+		assertNotEquals(position, feed.position());
+	}
+
+	@Test
+	void handOverKeepsProcessOfOtherRequest() throws Exception {
+		long oib = Oib.withCheckDigit(3000000000L);
+		String owner = membership(contexts.get(0)).owner(oib);
+		String other = contexts.stream().map(context -> membership(context).self())
+				.filter(url -> !url.equals(owner)).findFirst().orElseThrow();
+		String body = "{\"oib\":" + oib + ",\"firstName\":\"Ivan\",\"lastName\":\"Horvat\"}";
+
+		// First request of the OIB was started and stopped, the second one holds the process now
+		long first = send(other, "POST", "/client/card", body).get("id").asLong();
+		send(other, "POST", "/client/card/" + first + "/startProcess", "");
+		send(other, "DELETE", "/client/card/" + first + "/stopProcess", "");
+		long second = send(other, "POST", "/client/card", body).get("id").asLong();
+		send(other, "POST", "/client/card/" + second + "/startProcess", "");
+
+		HttpResponse<String> handOver = call(owner, "POST", "/cluster/processes/" + first, "", other);
+		assertEquals(409, handOver.statusCode(), handOver.body());
+		ConfigurableApplicationContext ownerContext = contexts.stream()
+				.filter(context -> membership(context).self().equals(owner)).findFirst().orElseThrow();
+		assertEquals(second, registry(ownerContext).get(oib).getRequestId());
+
+		// The request that holds it can be handed over again
+		assertEquals(200, call(owner, "POST", "/cluster/processes/" + second, "", other).statusCode());
+		assertEquals(second, registry(ownerContext).get(oib).getRequestId());
+	}
+
+	private static void assertOnOwners(List<ConfigurableApplicationContext> live, List<Long> clientOibs, List<Long> ids) {
+		live.forEach(context -> registry(context).flush());
+		for (int i = 0; i < clientOibs.size(); i++) {
+			long oib = clientOibs.get(i);
+			String owner = membership(live.get(0)).owner(oib);
+			for (ConfigurableApplicationContext context : live) {
+				assertEquals(owner, membership(context).owner(oib), "Owner of OIB " + oib);
+				ProcessEntry entry = registry(context).get(oib);
+				if (membership(context).self().equals(owner)) {
+					assertNotNull(entry, "Process of OIB " + oib + " on its owner");
+					assertEquals(ids.get(i), entry.getRequestId());
+				} else {
+					assertNull(entry, "Process of OIB " + oib + " on other node");
+				}
+			}
+			File[] files = shared.resolve("processes").toFile().listFiles((dir, name) -> name.startsWith(oib + "--"));
+			assertNotNull(files);
+			assertEquals(1, files.length, "Process files for OIB " + oib);
+		}
+	}
+
+	private static JsonNode send(String node, String method, String path, String body) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(node + path))
+				.header("Content-Type", "application/json")
+				.method(method, HttpRequest.BodyPublishers.ofString(body))
+				.build();
+		HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+		assertTrue(response.statusCode() / 100 == 2, method + " " + path + " answered " + response.statusCode() + " " + response.body());
+		return objectMapper.readTree(response.body());
+	}
+
+	// from: node named in the forwarded header, null for a call from outside the cluster
+	private static HttpResponse<String> call(String node, String method, String path, String body, String from) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + path))
+				.header("Content-Type", "application/json")
+				.method(method, HttpRequest.BodyPublishers.ofString(body));
+		if (from != null) request.header(ClusterClient.forwardedHeader, from);
+		return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Cluster did not settle in time");
+			Thread.sleep(100);
+		}
+	}
+
+	private static ClusterMembership membership(ConfigurableApplicationContext context) {
+		return context.getBean(ClusterMembership.class);
+	}
+
+	private static ClientChangeFeed feed(ConfigurableApplicationContext context) {
+		return context.getBean(ClientChangeFeed.class);
+	}
+
+	private static ProcessRegistry registry(ConfigurableApplicationContext context) {
+		return context.getBean(ProcessRegistry.class);
+	}
+}
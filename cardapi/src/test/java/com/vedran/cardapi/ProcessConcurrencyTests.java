@@ -0,0 +1,100 @@
+package com.vedran.cardapi;
+
+import com.vedran.cardapi.controller.ApiControllers;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.process.ProcessEntry;
+import com.vedran.cardapi.process.ProcessRegistry;
+import com.vedran.cardapi.repo.ClientRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:concurrencytest;DB_CLOSE_DELAY=-1",
+		// Production would move requests on to PRODUCED while test checks them
+		"cardapi.production.enabled=false"})
+class ProcessConcurrencyTests {
+
+	static final int oibs = 16;
+	static final int requestsPerOib = 8;
+	static final long firstOib = 10000000000L;
+
+	@TempDir
+	static Path processFolder;
+
+	@DynamicPropertySource
+	static void processProperties(DynamicPropertyRegistry registry) {
+		registry.add("cardapi.process.folder", () -> processFolder.toString());
+	}
+
+	@Autowired
+	private ApiControllers apiControllers;
+	@Autowired
+	private ClientRepo clientRepo;
+	@Autowired
+	private ProcessRegistry processRegistry;
+
+	@Test
+	void concurrentStartsCreateOneStartedProcessPerOib() throws Exception {
+		List<Long> ids = new ArrayList<>();
+		for (int o = 0; o < oibs; o++) {
+			for (int r = 0; r < requestsPerOib; r++) {
+				Client client = new Client(null, firstOib + o, "Ivan", "Horvat" + r, Client.Status.REQUESTED, null);
+				ids.add(clientRepo.save(client).getId());
+			}
+		}
+
+		// Every request is started twice, all at the same moment
+		ExecutorService pool = Executors.newFixedThreadPool(32);
+		CountDownLatch startSignal = new CountDownLatch(1);
+		List<Future<Object>> results = new ArrayList<>();
+		for (int round = 0; round < 2; round++) {
+			for (Long id : ids) {
+				results.add(pool.submit(() -> {
+					startSignal.await();
+					return apiControllers.startClientRequest(id, null);
+				}));
+			}
+		}
+		startSignal.countDown();
+		for (Future<Object> result : results) {
+			result.get(60, TimeUnit.SECONDS);
+		}
+		pool.shutdown();
+		// Lanes are off, files are already written. flush keeps the checks valid with lanes on.
+		processRegistry.flush();
+
+		for (int o = 0; o < oibs; o++) {
+			long oib = firstOib + o;
+			List<Client> started = clientRepo.findByOib(oib).stream()
+					.filter(client -> client.getStatus() == Client.Status.STARTED)
+					.toList();
+			assertEquals(1, started.size(), "STARTED requests for OIB " + oib);
+
+			ProcessEntry entry = processRegistry.get(oib);
+			assertNotNull(entry, "Process for OIB " + oib);
+			assertEquals(started.get(0).getId(), entry.getRequestId());
+
+			File[] files = processFolder.toFile().listFiles((dir, name) -> name.startsWith(oib + "--"));
+			assertNotNull(files);
+			assertEquals(1, files.length, "Process files for OIB " + oib);
+		}
+	}
+
+}
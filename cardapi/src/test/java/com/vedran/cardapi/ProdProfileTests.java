@@ -0,0 +1,55 @@
+package com.vedran.cardapi;
+
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.repo.ClientRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Prod profile on a new file database: schema comes only from Flyway migrations and the
+// context starts only if Hibernate validates the entities against it (ddl-auto=validate)
+@SpringBootTest
+@ActiveProfiles("prod")
+class ProdProfileTests {
+
+	@TempDir
+	static Path folder;
+
+	@DynamicPropertySource
+	static void fileProperties(DynamicPropertyRegistry registry) {
+		registry.add("cardapi.db.file", () -> folder.resolve("cardapi").toString());
+		registry.add("cardapi.process.folder", () -> folder.resolve("processes").toString());
+	}
+
+	@Autowired
+	private Environment environment;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private ClientRepo clientRepo;
+
+	@Test
+	void flywaySchemaValidates() {
+		assertEquals("validate", environment.getProperty("spring.jpa.hibernate.ddl-auto"));
+		// Row without version is the schema creation of Flyway
+		assertEquals(List.of("1"), jdbcTemplate.queryForList("select \"version\" from \"flyway_schema_history\" "
+				+ "where \"version\" is not null and \"success\" order by \"installed_rank\"", String.class));
+
+		Client saved = clientRepo.save(new Client(null, 69435151530L, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+
+		Client read = clientRepo.findById(saved.getId()).orElseThrow();
+		assertEquals(Client.Status.REQUESTED, read.getStatus());
+		assertEquals(0L, read.getVersion());
+	}
+}
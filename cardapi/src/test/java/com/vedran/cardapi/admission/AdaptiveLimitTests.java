@@ -0,0 +1,114 @@
+package com.vedran.cardapi.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimitTests {
+
+	static final long fast = TimeUnit.MICROSECONDS.toNanos(10);
+	static final long slow = TimeUnit.MILLISECONDS.toNanos(10);
+
+	@Test
+	void growsWhenAllSlotsWereInUseAndLatencyStays() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(2, 1, 10, 0, 0, 2.0, 0.5);
+		assertTrue(limit.acquire(false));
+		assertTrue(limit.acquire(false));
+		limit.release("GET /clients", fast, false);
+		assertEquals(3, limit.limit());
+		// Not all in use any more
+		limit.release("GET /clients", fast, false);
+		assertEquals(3, limit.limit());
+	}
+
+	@Test
+	void shrinksWhenEndpointGetsSlowerThanItsFastest() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(8, 1, 10, 0, 0, 2.0, 0.5);
+		limit.acquire(false);
+		limit.release("GET /clients", fast, false);
+		limit.acquire(false);
+		limit.release("GET /clients", slow, false);
+		assertEquals(4, limit.limit());
+	}
+
+	@Test
+	void fastAndSlowEndpointsOfOneClassHaveTheirOwnBaseline() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(8, 1, 10, 0, 0, 2.0, 0.5);
+		for (int i = 0; i < 100; i++) {
+			limit.acquire(false);
+			limit.release("GET /client/card/{}", fast, false);
+			limit.acquire(false);
+			limit.release("GET /clients", slow, false);
+		}
+		assertEquals(8, limit.limit());
+	}
+
+	@Test
+	void responseWithoutSampleKeepsLimit() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(8, 1, 10, 0, 0, 2.0, 0.5);
+		limit.acquire(false);
+		limit.release("GET /clients", fast, false);
+		limit.acquire(false);
+		limit.release("GET /clients", -1, false);
+		assertEquals(8, limit.limit());
+		assertEquals(0, limit.inFlight());
+	}
+
+	@Test
+	void failureShrinksDownToMinLimit() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(4, 2, 10, 0, 0, 2.0, 0.5);
+		for (int i = 0; i < 3; i++) {
+			limit.acquire(false);
+			limit.release("POST /client/card", fast, true);
+		}
+		assertEquals(2, limit.limit());
+	}
+
+	@Test
+	void limitStaysBetweenMinAndMax() {
+		assertEquals(10, new AdaptiveLimit(50, 1, 10, 0, 0, 2.0, 0.5).limit());
+		assertEquals(3, new AdaptiveLimit(0, 3, 10, 0, 0, 2.0, 0.5).limit());
+	}
+
+	@Test
+	void fullLimitRejectsWithoutWaitingOrWithFullQueue() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(1, 1, 1, 0, 1000, 2.0, 0.5);
+		assertTrue(limit.acquire(false));
+		assertTrue(limit.underPressure());
+		assertFalse(limit.acquire(false));
+		// Queue of size 0
+		assertFalse(limit.acquire(true));
+	}
+
+	@Test
+	void queuedRequestGetsSlotThatIsReleased() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(1, 1, 1, 1, 10000, 2.0, 0.5);
+		assertTrue(limit.acquire(false));
+		CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+			try {
+				return limit.acquire(true);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		});
+		while (limit.queued() == 0) {
+			Thread.sleep(1);
+		}
+		limit.release("POST /client/card", -1, false);
+		assertTrue(waiting.get(5, TimeUnit.SECONDS));
+		assertEquals(1, limit.inFlight());
+	}
+
+	@Test
+	void queuedRequestIsRejectedAfterTimeout() throws Exception {
+		AdaptiveLimit limit = new AdaptiveLimit(1, 1, 1, 1, 10, 2.0, 0.5);
+		assertTrue(limit.acquire(false));
+		assertFalse(limit.acquire(true));
+		assertEquals(0, limit.queued());
+	}
+}
@@ -0,0 +1,143 @@
+package com.vedran.cardapi.admission;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.vedran.cardapi.admission.AdmissionFilter.EndpointClass.PROCESS;
+import static com.vedran.cardapi.admission.AdmissionFilter.EndpointClass.READ;
+import static com.vedran.cardapi.admission.AdmissionFilter.EndpointClass.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionFilterTests {
+
+	@Test
+	void classifiesEndpoints() {
+		assertEquals(READ, AdmissionFilter.classify("GET", "/clients"));
+		assertEquals(READ, AdmissionFilter.classify("GET", "/client/card/7"));
+		assertEquals(READ, AdmissionFilter.classify("POST", "/oib/validate"));
+		assertEquals(WRITE, AdmissionFilter.classify("POST", "/client/card"));
+		assertEquals(WRITE, AdmissionFilter.classify("POST", "/client/card/bulk"));
+		assertEquals(WRITE, AdmissionFilter.classify("PATCH", "/client/card/7"));
+		assertEquals(WRITE, AdmissionFilter.classify("DELETE", "/client/card/7"));
+		assertEquals(PROCESS, AdmissionFilter.classify("DELETE", "/client/12345678903"));
+		assertEquals(PROCESS, AdmissionFilter.classify("POST", "/client/card/7/startProcess"));
+		assertEquals(PROCESS, AdmissionFilter.classify("DELETE", "/client/card/7/stopProcess"));
+		assertEquals(PROCESS, AdmissionFilter.classify("POST", "/clients/startProcess"));
+		assertEquals(PROCESS, AdmissionFilter.classify("DELETE", "/clients/killProcess"));
+	}
+
+	@Test
+	void endpointLeavesOutIds() {
+		assertEquals("GET /client/card/{}", AdmissionFilter.endpoint("GET", "/client/card/7"));
+		assertEquals("GET /client/{}", AdmissionFilter.endpoint("GET", "/client/12345678903"));
+		assertEquals("POST /client/card/{}/startProcess", AdmissionFilter.endpoint("POST", "/client/card/42/startProcess"));
+		assertEquals("GET /clients", AdmissionFilter.endpoint("GET", "/clients"));
+	}
+
+	@Test
+	void writeDoesNotWaitWhileReadsHaveNoSlot() {
+		AdmissionFilter filter = filter(new MockEnvironment()
+				.withProperty("cardapi.admission.read.initial-limit", "1")
+				.withProperty("cardapi.admission.read.max-limit", "1")
+				.withProperty("cardapi.admission.write.initial-limit", "1")
+				.withProperty("cardapi.admission.write.max-limit", "1")
+				.withProperty("cardapi.admission.write.queue-timeout-ms", "60000"));
+		assertTrue(filter.admit(WRITE));
+		assertTrue(filter.admit(READ));
+		// Would wait a minute in the write queue if it were allowed to
+		assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertFalse(filter.admit(WRITE)));
+	}
+
+	@Test
+	void writeWithFreeSlotIsAdmittedWhileReadsHaveNoSlot() {
+		AdmissionFilter filter = filter(new MockEnvironment()
+				.withProperty("cardapi.admission.read.initial-limit", "1")
+				.withProperty("cardapi.admission.read.max-limit", "1"));
+		assertTrue(filter.admit(READ));
+		assertTrue(filter.admit(WRITE));
+		assertTrue(filter.admit(PROCESS));
+	}
+
+	@Test
+	void readWaitsWhileProcessCallsHaveNoSlot() throws Exception {
+		AdmissionFilter filter = filter(new MockEnvironment()
+				.withProperty("cardapi.admission.read.initial-limit", "1")
+				.withProperty("cardapi.admission.read.max-limit", "1")
+				.withProperty("cardapi.admission.read.queue-timeout-ms", "60000")
+				.withProperty("cardapi.admission.process.initial-limit", "1")
+				.withProperty("cardapi.admission.process.max-limit", "1"));
+		assertTrue(filter.admit(PROCESS));
+		assertTrue(filter.admit(READ));
+		CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> filter.admit(READ));
+		while (filter.limit(READ).queued() == 0) {
+			Thread.sleep(1);
+		}
+		filter.done(READ, "GET /clients", -1, false);
+		assertTrue(waiting.join());
+	}
+
+	@Test
+	void notModifiedAndClientErrorsAreNoLatencySamples() throws Exception {
+		AdmissionFilter filter = filter(new MockEnvironment()
+				.withProperty("cardapi.admission.enabled", "true")
+				.withProperty("cardapi.admission.read.initial-limit", "8")
+				.withProperty("cardapi.admission.backoff", "0.5"));
+		// Fast 304 first: were it a sample, the slow 200 after it would shrink the limit
+		call(filter, "/client/card/1", HttpStatus.NOT_MODIFIED, 0);
+		call(filter, "/client/card/1", HttpStatus.NOT_FOUND, 0);
+		call(filter, "/client/card/1", HttpStatus.OK, 5);
+		assertEquals(8, filter.limit(READ).limit());
+		assertEquals(0, filter.limit(READ).inFlight());
+	}
+
+	@Test
+	void serverErrorShrinksLimit() throws Exception {
+		AdmissionFilter filter = filter(new MockEnvironment()
+				.withProperty("cardapi.admission.enabled", "true")
+				.withProperty("cardapi.admission.read.initial-limit", "8")
+				.withProperty("cardapi.admission.backoff", "0.5"));
+		call(filter, "/clients", HttpStatus.INTERNAL_SERVER_ERROR, 0);
+		assertEquals(4, filter.limit(READ).limit());
+	}
+
+	@Test
+	void offByDefault() throws Exception {
+		AdmissionFilter filter = filter(new MockEnvironment());
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/clients");
+		assertTrue(filter.shouldNotFilter(request));
+	}
+
+	private static AdmissionFilter filter(MockEnvironment environment) {
+		return new AdmissionFilter(environment, new ObjectMapper(), new SimpleMeterRegistry());
+	}
+
+	private static void call(AdmissionFilter filter, String path, HttpStatus status, long workMs) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		HttpServlet controller = new HttpServlet() {
+			@Override
+			protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+				LockSupport.parkNanos(workMs * 1_000_000);
+				resp.setStatus(status.value());
+			}
+		};
+		filter.doFilter(request, response, new MockFilterChain(controller));
+		assertEquals(status.value(), response.getStatus());
+	}
+}
@@ -0,0 +1,104 @@
+package com.vedran.cardapi.feed;
+
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.ClientChange;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// GET /clients/changes on a running server. The slow subscriber is a socket with a small
+// receive buffer that is never read, so sends to it block once the buffers are full.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.datasource.url=jdbc:h2:mem:feedtest;DB_CLOSE_DELAY=-1",
+		"cardapi.feed.buffer-size=1000"})
+class ClientChangeFeedTests {
+
+	// About 12 MB of events, sends to the slow subscriber block after about 4 MB
+	static final int waves = 50;
+	static final int waveSize = 1000;
+
+	@TempDir
+	static Path processFolder;
+
+	@DynamicPropertySource
+	static void processProperties(DynamicPropertyRegistry registry) {
+		registry.add("cardapi.process.folder", () -> processFolder.toString());
+	}
+
+	@LocalServerPort
+	private int port;
+	@Autowired
+	private ClientChangeFeed changeFeed;
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void slowSubscriberDoesNotHoldUpOthers() throws Exception {
+		try (Socket slow = new Socket()) {
+			slow.setReceiveBufferSize(4096);
+			slow.connect(new InetSocketAddress("localhost", port));
+			OutputStream out = slow.getOutputStream();
+			out.write(("GET /clients/changes HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			await(() -> subscribers() == 1);
+
+			// Fast subscriber reads every line, keeps id of the last event
+			AtomicReference<String> lastId = new AtomicReference<>();
+			HttpResponse<Stream<String>> fast = HttpClient.newHttpClient().send(
+					HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/clients/changes")).GET().build(),
+					HttpResponse.BodyHandlers.ofLines());
+			Thread reader = new Thread(() -> fast.body()
+					.filter(line -> line.startsWith("id:"))
+					.forEach(line -> lastId.set(line.substring(3))));
+			reader.setDaemon(true);
+			reader.start();
+			await(() -> subscribers() == 2);
+
+			// In waves the fast subscriber reads in full, so each wave is sent to the slow one too
+			for (int wave = 0; wave < waves; wave++) {
+				for (int i = 0; i < waveSize; i++) {
+					long id = (long) wave * waveSize + i;
+					changeFeed.publish(ClientChange.Type.CREATED, id, 50000000000L + id, Client.Status.REQUESTED, 0L);
+				}
+				// Position is <epoch>-<offset>, event id <epoch>:<offset>
+				String last = changeFeed.position().replace('-', ':');
+				await(() -> last.equals(lastId.get()));
+			}
+			fast.body().close();
+		}
+	}
+
+	private double subscribers() {
+		return meterRegistry.get("cardapi.feed.subscribers").gauge().value();
+	}
+
+	// Sends to a blocked socket time out only after much longer
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Subscriber did not get events in time");
+			Thread.sleep(50);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.vedran.cardapi.models;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OibTests {
+
+	@Test
+	void knownValidOibs() {
+		assertTrue(Oib.isValid(69435151530L));
+		assertTrue(Oib.isValid(12345678903L));
+		assertTrue(Oib.isValid(99999999994L));
+	}
+
+	@Test
+	void wrongCheckDigitIsInvalid() {
+		assertFalse(Oib.isValid(69435151531L));
+		assertFalse(Oib.isValid(12345678900L));
+		assertFalse(Oib.isValid(99999999999L));
+	}
+
+	@Test
+	void remainderOneGivesCheckDigitZero() {
+		// 11 - 1 = 10, which is written as 0
+		assertEquals(0, Oib.checkDigit(6943515153L));
+		assertEquals(0, Oib.checkDigit(1000000018L));
+		assertTrue(Oib.isValid(10000000180L));
+		assertFalse(Oib.isValid(10000000181L));
+	}
+
+	@Test
+	void remainderTenGivesCheckDigitOne() {
+		assertEquals(1, Oib.checkDigit(1000000009L));
+		assertTrue(Oib.isValid(10000000091L));
+		assertFalse(Oib.isValid(10000000090L));
+	}
+
+	@Test
+	void onlyElevenDigitsWithoutLeadingZero() {
+		assertTrue(Oib.isValid(Oib.min));
+		assertFalse(Oib.isValid(Oib.min - 1));
+		assertFalse(Oib.isValid(Oib.max + 1));
+		assertFalse(Oib.isValid(Oib.withCheckDigit(999999999L)));
+		assertFalse(Oib.isValid(0));
+		assertFalse(Oib.isValid(-69435151530L));
+	}
+
+	@Test
+	void checkDigitIsSameAsDigitByDigit() {
+		for (long digits = 1000000000L; digits < 1000000000L + 100000; digits += 7) {
+			assertEquals(reference(digits), Oib.checkDigit(digits), "Check digit of " + digits);
+		}
+		for (long digits = 9999999999L; digits > 9999999999L - 100000; digits -= 7) {
+			assertEquals(reference(digits), Oib.checkDigit(digits), "Check digit of " + digits);
+		}
+	}
+
+	@Test
+	void withCheckDigitIsValid() {
+		for (long digits = 1000000000L; digits < 1000000000L + 1000; digits++) {
+			assertTrue(Oib.isValid(Oib.withCheckDigit(digits)));
+		}
+	}
+
+	// ISO 7064 MOD 11,10 as written in the standard, on the decimal string
+	private static int reference(long digits) {
+		int a = 10;
+		for (char c : Long.toString(digits).toCharArray()) {
+			a = (a + (c - '0')) % 10;
+			if (a == 0) a = 10;
+			a = a * 2 % 11;
+		}
+		return (11 - a) % 10;
+	}
+}
@@ -0,0 +1,189 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Every test writes, closes and loads the journal again, as a restart does
+class JournalProcessStoreTests {
+
+	static final long oib1 = 69435151530L;
+	static final long oib2 = 12345678903L;
+	static final long oib3 = 10000000091L;
+
+	@TempDir
+	Path folder;
+
+	@Test
+	void reloadGivesWhatWasWritten() throws IOException {
+		JournalProcessStore journal = open(JournalProcessStore.FsyncPolicy.GROUP, 1000);
+		ProcessEntry first = journal.start(client(1L, oib1, "Ivan", "Horvat"), null);
+		journal.start(client(2L, oib2, "Ana", "Kovac"), null);
+		ProcessEntry third = journal.start(client(3L, oib3, "Marko", "Babic"), null);
+		// Same request again is an update, other request on same OIB replaces it
+		journal.start(client(1L, oib1, "Ivan", "Horvatic"), first);
+		journal.start(client(4L, oib3, "Iva", "Babic"), third);
+		journal.stop(journal.start(client(2L, oib2, "Ana", "Kovac"), null));
+		journal.close();
+
+		Map<Long, ProcessEntry> loaded = reload(JournalProcessStore.FsyncPolicy.GROUP, 1000);
+		assertEquals(2, loaded.size());
+		assertData(loaded.get(oib1), "1", "Ivan", "Horvatic");
+		assertData(loaded.get(oib3), "4", "Iva", "Babic");
+		assertNull(loaded.get(oib2));
+	}
+
+	@Test
+	void manySegmentsAreReplayedInOrder() throws IOException {
+		// Few records per segment
+		JournalProcessStore journal = new JournalProcessStore(journalFolder().getPath(), legacyFolder().getPath(),
+				200, JournalProcessStore.FsyncPolicy.NONE, false, 1000);
+		journal.load();
+		ProcessEntry previous = null;
+		for (long id = 1; id <= 20; id++) {
+			previous = journal.start(client(id, oib1, "Ivan", "Horvat" + id), previous);
+		}
+		journal.close();
+		assertTrue(segments().length > 1);
+
+		Map<Long, ProcessEntry> loaded = reload(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		assertEquals(1, loaded.size());
+		assertData(loaded.get(oib1), "20", "Ivan", "Horvat20");
+	}
+
+	@Test
+	void tornTailIsDroppedAndNewRecordsFollowLastValidOne() throws IOException {
+		JournalProcessStore journal = open(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		journal.start(client(1L, oib1, "Ivan", "Horvat"), null);
+		journal.start(client(2L, oib2, "Ana", "Kovac"), null);
+		journal.close();
+		// Crash in the middle of the last record
+		File segment = segments()[0];
+		long size;
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			size = file.length() - 5;
+			file.setLength(size);
+		}
+
+		journal = store(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		Map<Long, ProcessEntry> loaded = journal.load();
+		assertEquals(List.of(oib1), List.copyOf(loaded.keySet()));
+		assertTrue(segment.length() < size);
+		journal.start(client(3L, oib3, "Marko", "Babic"), null);
+		journal.close();
+
+		loaded = reload(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		assertEquals(2, loaded.size());
+		assertData(loaded.get(oib3), "3", "Marko", "Babic");
+	}
+
+	@Test
+	void recordWithWrongCrcEndsReplay() throws IOException {
+		JournalProcessStore journal = open(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		journal.start(client(1L, oib1, "Ivan", "Horvat"), null);
+		journal.start(client(2L, oib2, "Ana", "Kovac"), null);
+		journal.close();
+		// One bit of the last name of the last record
+		File segment = segments()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			long position = file.length() - JournalProcessStore.CRC_SIZE - 1;
+			file.seek(position);
+			int last = file.read();
+			file.seek(position);
+			file.write(last ^ 1);
+		}
+
+		Map<Long, ProcessEntry> loaded = reload(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		assertEquals(List.of(oib1), List.copyOf(loaded.keySet()));
+	}
+
+	@Test
+	void compactionKeepsLiveProcessesAndNullNames() throws IOException {
+		JournalProcessStore journal = open(JournalProcessStore.FsyncPolicy.ALWAYS, 0);
+		ProcessEntry previous = null;
+		for (long id = 1; id <= 5; id++) {
+			previous = journal.start(client(id, oib1, null, "Horvat"), previous);
+		}
+		journal.stop(journal.start(client(6L, oib2, "Ana", "Kovac"), null));
+		journal.compact();
+		journal.close();
+
+		File[] segments = segments();
+		assertEquals(1, segments.length);
+		// Snapshot record, then one start with no first name (not the text "null")
+		int recordSize = JournalProcessStore.HEADER_SIZE + JournalProcessStore.CRC_SIZE;
+		assertEquals(2L * recordSize + "Horvat".length(), segments[0].length());
+
+		Map<Long, ProcessEntry> loaded = reload(JournalProcessStore.FsyncPolicy.ALWAYS, 0);
+		assertEquals(1, loaded.size());
+		assertData(loaded.get(oib1), "5", "null", "Horvat");
+	}
+
+	@Test
+	void stopAllIsOneSnapshotRecord() throws IOException {
+		JournalProcessStore journal = open(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		ProcessEntry first = journal.start(client(1L, oib1, "Ivan", "Horvat"), null);
+		ProcessEntry second = journal.start(client(2L, oib2, "Ana", "Kovac"), null);
+		journal.stopAll(List.of(first, second));
+		journal.start(client(3L, oib3, "Marko", "Babic"), null);
+		journal.close();
+
+		Map<Long, ProcessEntry> loaded = reload(JournalProcessStore.FsyncPolicy.NONE, 1000);
+		assertEquals(List.of(oib3), List.copyOf(loaded.keySet()));
+	}
+
+	// Loaded and ready for writes
+	private JournalProcessStore open(JournalProcessStore.FsyncPolicy fsync, long compactionMinRecords) {
+		JournalProcessStore journal = store(fsync, compactionMinRecords);
+		journal.load();
+		return journal;
+	}
+
+	// What a restart would load
+	private Map<Long, ProcessEntry> reload(JournalProcessStore.FsyncPolicy fsync, long compactionMinRecords) throws IOException {
+		JournalProcessStore journal = store(fsync, compactionMinRecords);
+		Map<Long, ProcessEntry> loaded = journal.load();
+		journal.close();
+		return loaded;
+	}
+
+	private JournalProcessStore store(JournalProcessStore.FsyncPolicy fsync, long compactionMinRecords) {
+		return new JournalProcessStore(journalFolder().getPath(), legacyFolder().getPath(),
+				64 * 1024 * 1024, fsync, false, compactionMinRecords);
+	}
+
+	private File journalFolder() {
+		return folder.resolve("journal").toFile();
+	}
+
+	private File legacyFolder() {
+		return folder.resolve("legacy").toFile();
+	}
+
+	private File[] segments() {
+		File[] segments = journalFolder().listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".log"));
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	static Client client(Long id, long oib, String firstName, String lastName) {
+		return new Client(id, oib, firstName, lastName, Client.Status.STARTED, 0L);
+	}
+
+	static void assertData(ProcessEntry entry, String id, String firstName, String lastName) {
+		assertArrayEquals(new String[]{id, String.valueOf(entry.getOib()), firstName, lastName, "STARTED"}, entry.getData());
+	}
+}
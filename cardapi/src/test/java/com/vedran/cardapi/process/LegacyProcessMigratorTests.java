@@ -0,0 +1,82 @@
+package com.vedran.cardapi.process;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static com.vedran.cardapi.process.JournalProcessStoreTests.assertData;
+import static com.vedran.cardapi.process.JournalProcessStoreTests.client;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LegacyProcessMigratorTests {
+
+	static final long oib1 = 69435151530L;
+	static final long oib2 = 12345678903L;
+	static final long oib3 = 10000000091L;
+
+	@TempDir
+	Path folder;
+
+	@Test
+	void allFilesImportedThenFolderIsRenamed() throws IOException {
+		FileProcessStore legacy = new FileProcessStore(legacyFolder().getPath());
+		legacy.load();
+		legacy.start(client(1L, oib1, "Ivan", "Horvat"), null);
+		legacy.start(client(2L, oib2, null, "Kovac"), null);
+
+		JournalProcessStore journal = journal();
+		Map<Long, ProcessEntry> loaded = journal.load();
+		journal.close();
+		assertEquals(2, loaded.size());
+		assertData(loaded.get(oib1), "1", "Ivan", "Horvat");
+		assertData(loaded.get(oib2), "2", "null", "Kovac");
+		assertFalse(legacyFolder().exists());
+		assertTrue(new File(legacyFolder().getPath() + ".migrated").isDirectory());
+
+		// Next startup reads only the journal
+		journal = journal();
+		assertEquals(loaded.keySet(), journal.load().keySet());
+		journal.close();
+	}
+
+	@Test
+	void folderStaysWhenAFileIsNotImported() throws IOException {
+		FileProcessStore legacy = new FileProcessStore(legacyFolder().getPath());
+		legacy.load();
+		legacy.start(client(1L, oib1, "Ivan", "Horvat"), null);
+		legacy.start(client(2L, oib2, "Ana", "Kovac"), null);
+		Files.writeString(legacyFolder().toPath().resolve(oib3 + "--2024-01-01--00-00-00.txt"), "not a process");
+
+		JournalProcessStore journal = journal();
+		Map<Long, ProcessEntry> loaded = journal.load();
+		journal.close();
+		assertEquals(2, loaded.size());
+		assertTrue(legacyFolder().isDirectory());
+		assertFalse(new File(legacyFolder().getPath() + ".migrated").exists());
+
+		// Corrupted file removed, next startup finishes without importing the others twice
+		Files.delete(legacyFolder().toPath().resolve(oib3 + "--2024-01-01--00-00-00.txt"));
+		journal = journal();
+		loaded = journal.load();
+		journal.close();
+		assertEquals(2, loaded.size());
+		assertFalse(legacyFolder().exists());
+		assertTrue(new File(legacyFolder().getPath() + ".migrated").isDirectory());
+	}
+
+	private JournalProcessStore journal() {
+		return new JournalProcessStore(folder.resolve("journal").toString(), legacyFolder().getPath(),
+				64 * 1024 * 1024, JournalProcessStore.FsyncPolicy.NONE, true, 1000);
+	}
+
+	private File legacyFolder() {
+		return folder.resolve("processes").toFile();
+	}
+}
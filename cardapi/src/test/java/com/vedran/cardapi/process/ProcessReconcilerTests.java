@@ -0,0 +1,157 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.repo.ClientRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Process files are written as a crash or an older version would leave them, then loaded and reconciled
+// as at startup. Each test has its own OIBs, a reconcile of one test leaves the others consistent.
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:reconciletest;DB_CLOSE_DELAY=-1",
+		// Production would move requests on to PRODUCED while test checks them
+		"cardapi.production.enabled=false"})
+class ProcessReconcilerTests {
+
+	@TempDir
+	static Path tempFolder;
+
+	@DynamicPropertySource
+	static void processProperties(DynamicPropertyRegistry registry) {
+		// Quarantine folder is next to the process folder, also in the temp folder
+		registry.add("cardapi.process.folder", () -> processFolder().toString());
+	}
+
+	@Autowired
+	private ClientRepo clientRepo;
+	@Autowired
+	private ProcessRegistry processRegistry;
+
+	@Test
+	void orphanAndCorruptedProcessesAreQuarantined() throws Exception {
+		Client client = save(20000000001L, Client.Status.STARTED);
+		File missingRequest = write(20000000002L, "999999:20000000002:Ivan:Horvat:STARTED");
+		// Request exists, but under another OIB
+		File otherOib = write(20000000003L, client.getId() + ":20000000003:Ivan:Horvat:STARTED");
+		File corrupted = write(20000000004L, "not a process");
+		File own = write(client.getOib(), client.getId() + ":" + client.getOib() + ":Ivan:Horvat:STARTED");
+
+		reconcile();
+
+		for (File file : List.of(missingRequest, otherOib, corrupted)) {
+			assertTrue(!file.exists() && quarantined(file).exists(), "Quarantined " + file.getName());
+		}
+		assertNull(processRegistry.get(20000000002L));
+		assertNull(processRegistry.get(20000000003L));
+		assertNull(processRegistry.get(20000000004L));
+		assertTrue(own.exists());
+		assertEquals(client.getId(), processRegistry.get(client.getOib()).getRequestId());
+		assertEquals(Client.Status.STARTED, status(client));
+	}
+
+	@Test
+	void statusFollowsProcess() throws Exception {
+		// Process was written, status update was lost
+		Client notUpdated = save(21000000001L, Client.Status.INACTIVE);
+		write(notUpdated.getOib(), notUpdated.getId() + ":" + notUpdated.getOib() + ":Ivan:Horvat:STARTED");
+		// Process was stopped, status update was lost
+		Client stale = save(21000000002L, Client.Status.STARTED);
+		write(stale.getOib(), stale.getId() + ":" + stale.getOib() + ":Ivan:Horvat:INACTIVE");
+		// Card was made, process was not removed
+		Client produced = save(21000000003L, Client.Status.PRODUCED);
+		File producedFile = write(produced.getOib(), produced.getId() + ":" + produced.getOib() + ":Ivan:Horvat:STARTED");
+
+		reconcile();
+
+		assertEquals(Client.Status.STARTED, status(notUpdated));
+		assertEquals(Client.Status.INACTIVE, status(stale));
+		assertEquals(Client.Status.PRODUCED, status(produced));
+		assertNull(processRegistry.get(produced.getOib()));
+		assertTrue(!producedFile.exists() && !quarantined(producedFile).exists());
+		// Bulk update bumps the version, stale PUT/PATCH of these requests is rejected
+		assertEquals(notUpdated.getVersion() + 1, clientRepo.findById(notUpdated.getId()).orElseThrow().getVersion());
+	}
+
+	@Test
+	void startedRequestsWithoutProcessAreRestarted() throws Exception {
+		Client lost = save(22000000001L, Client.Status.STARTED);
+		// Two STARTED requests of one OIB without process, only one can get it
+		Client first = save(22000000002L, Client.Status.STARTED);
+		Client second = save(22000000002L, Client.Status.STARTED);
+		// STARTED request of an OIB whose process belongs to another request
+		Client holder = save(22000000003L, Client.Status.STARTED);
+		Client notHolder = save(22000000003L, Client.Status.STARTED);
+		write(holder.getOib(), holder.getId() + ":" + holder.getOib() + ":Ivan:Horvat:STARTED");
+
+		reconcile();
+
+		ProcessEntry restarted = processRegistry.get(lost.getOib());
+		assertNotNull(restarted, "Process of STARTED request written again");
+		assertEquals(lost.getId(), restarted.getRequestId());
+		assertEquals(1, files(lost.getOib()).length);
+
+		ProcessEntry shared = processRegistry.get(first.getOib());
+		assertNotNull(shared);
+		Client winner = shared.getRequestId().equals(first.getId()) ? first : second;
+		Client loser = winner == first ? second : first;
+		assertEquals(Client.Status.STARTED, status(winner));
+		assertEquals(Client.Status.INACTIVE, status(loser));
+		assertEquals(1, files(first.getOib()).length);
+
+		assertEquals(holder.getId(), processRegistry.get(holder.getOib()).getRequestId());
+		assertEquals(Client.Status.STARTED, status(holder));
+		assertEquals(Client.Status.INACTIVE, status(notHolder));
+	}
+
+	// Load and reconcile as at startup, small chunks so lookups and updates take more than one
+	private void reconcile() {
+		processRegistry.load();
+		new ProcessReconciler(processRegistry, clientRepo, new SimpleMeterRegistry(), true, 2).reconcile();
+		processRegistry.flush();
+	}
+
+	private Client save(long oib, Client.Status status) {
+		return clientRepo.save(new Client(null, oib, "Ivan", "Horvat", status, null));
+	}
+
+	private Client.Status status(Client client) {
+		return clientRepo.findById(client.getId()).orElseThrow().getStatus();
+	}
+
+	private static File write(long oib, String data) throws IOException {
+		File file = processFolder().resolve(oib + "--2023-07-01--12-00-00.txt").toFile();
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.writeString(file.toPath(), data);
+		return file;
+	}
+
+	private static File[] files(long oib) {
+		File[] files = processFolder().toFile().listFiles((dir, name) -> name.startsWith(oib + "--"));
+		assertNotNull(files);
+		return files;
+	}
+
+	private static File quarantined(File file) {
+		return new File(file.getParentFile().getPath() + ".quarantine", file.getName());
+	}
+
+	private static Path processFolder() {
+		return tempFolder.resolve("processes");
+	}
+}
@@ -0,0 +1,106 @@
+package com.vedran.cardapi.process;
+
+import com.vedran.cardapi.models.Client;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Registry on a FileProcessStore in a temp folder, reloaded where a restart has to see the same processes
+class ProcessRegistryTests {
+
+	static final long oib1 = 69435151530L;
+	static final long oib2 = 12345678903L;
+
+	@TempDir
+	Path folder;
+
+	@Test
+	void startAllWritesOneProcessPerOib() {
+		ProcessRegistry registry = open();
+		registry.start(client(1L, oib1, Client.Status.STARTED));
+
+		// Replaces the process of request 1, adds one for oib2
+		registry.startAll(List.of(client(2L, oib1, Client.Status.STARTED), client(3L, oib2, Client.Status.STARTED)));
+
+		assertEquals(2L, registry.get(oib1).getRequestId());
+		assertEquals(3L, registry.get(oib2).getRequestId());
+		assertEquals(1, files(oib1).length);
+		assertEquals(1, files(oib2).length);
+		ProcessRegistry reloaded = open();
+		assertEquals(2, reloaded.size());
+		assertEquals(2L, reloaded.get(oib1).getRequestId());
+	}
+
+	@Test
+	void startAllRejectsSameOibTwice() {
+		ProcessRegistry registry = open();
+		List<Client> sameOib = List.of(client(1L, oib1, Client.Status.STARTED), client(2L, oib1, Client.Status.STARTED));
+
+		assertThrows(IllegalArgumentException.class, () -> registry.startAll(sameOib));
+		assertNull(registry.get(oib1));
+		assertEquals(0, files(oib1).length);
+	}
+
+	@Test
+	void stopAllRemovesEveryProcess() {
+		ProcessRegistry registry = open();
+		registry.startAll(List.of(client(1L, oib1, Client.Status.STARTED), client(2L, oib2, Client.Status.INACTIVE)));
+
+		registry.stopAll();
+
+		assertEquals(0, registry.size());
+		assertEquals(0, files(oib1).length + files(oib2).length);
+		assertEquals(0, open().size());
+	}
+
+	@Test
+	void onlyExactOibMatches() {
+		// Digits of oib1 start with prefix and end with suffix, file names of one contain the other
+		long prefix = 6943515153L;
+		long suffix = 9435151530L;
+		ProcessRegistry registry = open();
+		registry.start(client(1L, oib1, Client.Status.STARTED));
+
+		assertNull(registry.get(prefix));
+		assertNull(registry.get(suffix));
+
+		registry.start(client(2L, prefix, Client.Status.STARTED));
+		registry.start(client(3L, suffix, Client.Status.STARTED));
+		registry.stop(oib1);
+
+		assertNull(registry.get(oib1));
+		assertEquals(0, files(oib1).length);
+		ProcessRegistry reloaded = open();
+		assertEquals(2, reloaded.size());
+		assertNull(reloaded.get(oib1));
+		assertEquals(2L, reloaded.get(prefix).getRequestId());
+		assertEquals(3L, reloaded.get(suffix).getRequestId());
+		assertEquals(1, files(prefix).length);
+		assertEquals(1, files(suffix).length);
+	}
+
+	private ProcessRegistry open() {
+		ProcessRegistry registry = new ProcessRegistry(new FileProcessStore(folder.toString(), 1), new SimpleMeterRegistry());
+		registry.load();
+		return registry;
+	}
+
+	private File[] files(long oib) {
+		File[] files = folder.toFile().listFiles((dir, name) -> name.startsWith(oib + FileProcessStore.fileNameDelimiter));
+		assertNotNull(files);
+		return files;
+	}
+
+	private static Client client(Long id, long oib, Client.Status status) {
+		return new Client(id, oib, "Ivan", "Horvat", status, 0L);
+	}
+}
@@ -0,0 +1,164 @@
+package com.vedran.cardapi.production;
+
+import com.vedran.cardapi.CardapiApplication;
+import com.vedran.cardapi.controller.ApiControllers;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.process.ProcessRegistry;
+import com.vedran.cardapi.repo.ClientRepo;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Application with production on and one worker. The printer is a gate the test holds shut to
+// change a request while its card is printed. Database and process folder are files in the temp
+// folder, so a second application started on them is a restart.
+class CardProductionPipelineTests {
+
+	static final long oib = 30000000001L;
+
+	@TempDir
+	Path folder;
+
+	private final GatePrinter printer = new GatePrinter();
+	private ConfigurableApplicationContext context;
+
+	@AfterEach
+	void close() {
+		printer.open();
+		if (context != null) context.close();
+	}
+
+	@Test
+	void startedRequestIsProduced() throws Exception {
+		context = start(true);
+		Client client = request();
+
+		controllers().startClientRequest(client.getId(), null);
+
+		await(() -> status(client) == Client.Status.PRODUCED);
+		assertEquals(client.getId(), printer.printing.poll());
+		assertNull(registry().get(oib));
+		assertEquals(0, processFiles().length);
+		assertEquals(1.0, completed("produced"));
+	}
+
+	@Test
+	void requestStoppedWhilePrintingIsNotProduced() throws Exception {
+		context = start(true);
+		Client client = request();
+		printer.shut();
+
+		controllers().startClientRequest(client.getId(), null);
+		assertEquals(client.getId(), printer.printing.poll(30, TimeUnit.SECONDS));
+		controllers().stopClientRequest(client.getId());
+		printer.open();
+
+		await(() -> completed("cancelled") == 1.0);
+		assertEquals(Client.Status.INACTIVE, status(client));
+		assertEquals(Client.Status.INACTIVE.name(), registry().get(oib).getData()[4]);
+		assertEquals(0.0, completed("produced"));
+	}
+
+	@Test
+	void startedRequestIsProducedAfterRestart() throws Exception {
+		// Started while production is off, as if the application stopped before the card was made
+		context = start(false);
+		Client client = request();
+		controllers().startClientRequest(client.getId(), null);
+		assertEquals(Client.Status.STARTED, status(client));
+		context.close();
+
+		context = start(true);
+
+		await(() -> status(client) == Client.Status.PRODUCED);
+		assertNull(registry().get(oib));
+		assertEquals(0, processFiles().length);
+	}
+
+	private ConfigurableApplicationContext start(boolean production) {
+		return new SpringApplicationBuilder(CardapiApplication.class)
+				// Printer of the test instead of the stub
+				.initializers(context -> context.getBeanFactory().registerSingleton("cardPrinter", printer))
+				.run("--server.port=0",
+						"--spring.datasource.url=jdbc:h2:file:" + folder.resolve("db"),
+						"--cardapi.process.folder=" + folder.resolve("processes"),
+						"--cardapi.production.enabled=" + production,
+						"--cardapi.production.printer=gate",
+						"--cardapi.production.workers=1");
+	}
+
+	private Client request() {
+		return context.getBean(ClientRepo.class).save(new Client(null, oib, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+	}
+
+	private Client.Status status(Client client) {
+		return context.getBean(ClientRepo.class).findById(client.getId()).orElseThrow().getStatus();
+	}
+
+	private double completed(String outcome) {
+		return context.getBean(MeterRegistry.class).counter("cardapi.production.completed", "outcome", outcome).count();
+	}
+
+	private ApiControllers controllers() {
+		return context.getBean(ApiControllers.class);
+	}
+
+	private ProcessRegistry registry() {
+		return context.getBean(ProcessRegistry.class);
+	}
+
+	private File[] processFiles() {
+		File[] files = folder.resolve("processes").toFile().listFiles((dir, name) -> name.startsWith(oib + "--"));
+		assertNotNull(files);
+		return files;
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Production did not finish in time");
+			Thread.sleep(50);
+		}
+	}
+
+	// Print waits while the gate is shut, every printed request id is queued in printing
+	static class GatePrinter implements CardPrinter {
+
+		final BlockingQueue<Long> printing = new LinkedBlockingQueue<>();
+		private volatile CountDownLatch gate = new CountDownLatch(0);
+
+		void shut() {
+			gate = new CountDownLatch(1);
+		}
+
+		void open() {
+			gate.countDown();
+		}
+
+		@Override
+		public void personalize(Client client) {
+		}
+
+		@Override
+		public void print(Client client) throws InterruptedException {
+			printing.add(client.getId());
+			gate.await();
+		}
+	}
+}
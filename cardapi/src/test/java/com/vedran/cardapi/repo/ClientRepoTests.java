@@ -0,0 +1,112 @@
+package com.vedran.cardapi.repo;
+
+import com.vedran.cardapi.controller.ApiControllers;
+import com.vedran.cardapi.models.Client;
+import com.vedran.cardapi.models.Oib;
+import com.vedran.cardapi.process.ProcessRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Bulk statements of ClientRepo and the ClientCache in front of it. Rows without version are
+// inserted with SQL, as imports and benchmarks do.
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:repotest;DB_CLOSE_DELAY=-1")
+class ClientRepoTests {
+
+	@TempDir
+	static Path processFolder;
+
+	@DynamicPropertySource
+	static void processProperties(DynamicPropertyRegistry registry) {
+		registry.add("cardapi.process.folder", () -> processFolder.toString());
+	}
+
+	@Autowired
+	private ClientRepo clientRepo;
+	@Autowired
+	private ClientCache clientCache;
+	@Autowired
+	private ProcessRegistry processRegistry;
+	@Autowired
+	private ApiControllers apiControllers;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void bulkUpdatesGiveVersionToRowsWithoutOne() {
+		insertWithoutVersion(1000001L, 40000000001L, Client.Status.STARTED);
+		insertWithoutVersion(1000002L, 40000000002L, Client.Status.REQUESTED);
+		Client saved = clientRepo.save(new Client(null, 40000000003L, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+
+		clientRepo.updateStatusByIdsInBulk(List.of(1000002L, saved.getId()), Client.Status.STARTED);
+		clientRepo.updateStatusInBulk(Client.Status.STARTED, Client.Status.INACTIVE);
+
+		assertEquals(1L, version(1000001L));
+		assertEquals(2L, version(1000002L));
+		assertEquals(saved.getVersion() + 2, version(saved.getId()));
+		assertEquals(Client.Status.INACTIVE, clientRepo.findById(1000002L).orElseThrow().getStatus());
+	}
+
+	@Test
+	void bulkDeleteEvictsCacheAndProcess() {
+		long oib = Oib.withCheckDigit(4100000000L);
+		Client first = clientRepo.save(new Client(null, oib, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+		Client second = clientRepo.save(new Client(null, oib, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+		apiControllers.startClientRequest(first.getId(), null);
+		assertNotNull(processRegistry.get(oib));
+		// Both lookups are cached before the delete
+		assertTrue(clientCache.findById(first.getId()).isPresent());
+		assertTrue(clientCache.findById(second.getId()).isPresent());
+		assertEquals(2, clientCache.findByOib(oib).size());
+
+		assertEquals(200, apiControllers.deleteClientRequests(oib).getStatusCode().value());
+
+		assertEquals(0, clientRepo.findByOib(oib).size());
+		assertTrue(clientCache.findById(first.getId()).isEmpty());
+		assertTrue(clientCache.findById(second.getId()).isEmpty());
+		assertEquals(0, clientCache.findByOib(oib).size());
+		assertNull(processRegistry.get(oib));
+	}
+
+	@Test
+	void cacheReadsAreMetered() {
+		Client client = clientRepo.save(new Client(null, 42000000001L, "Ivan", "Horvat", Client.Status.REQUESTED, null));
+		double hits = gets("clientsById", "hit");
+		double misses = gets("clientsById", "miss");
+
+		clientCache.findById(client.getId());
+		clientCache.findById(client.getId());
+
+		assertEquals(misses + 1, gets("clientsById", "miss"));
+		assertEquals(hits + 1, gets("clientsById", "hit"));
+		assertTrue(meterRegistry.get("cache.size").tag("cache", "clientsByOib").gauge().value() >= 0);
+	}
+
+	private double gets(String cache, String result) {
+		return meterRegistry.get("cache.gets").tag("cache", cache).tag("result", result).functionCounter().count();
+	}
+
+	private void insertWithoutVersion(long id, long oib, Client.Status status) {
+		jdbcTemplate.update("insert into client (id, oib, first_name, last_name, status) values (?, ?, 'Ivan', 'Horvat', ?)",
+				id, oib, status.ordinal());
+	}
+
+	private Long version(Long id) {
+		return clientRepo.findById(id).orElseThrow().getVersion();
+	}
+}